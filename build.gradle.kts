@@ -19,6 +19,12 @@ java {
     }
 }
 
+// Only VectorSynthKernels uses the incubator module, and it is loaded reflectively when the server enables it.
+// Using it is intended, so the "using incubating module" warning is silenced to keep the build warning-free
+tasks.withType<JavaCompile>().configureEach {
+    options.compilerArgs.addAll(listOf("--add-modules", "jdk.incubator.vector", "-Xlint:-incubating"))
+}
+
 hytale {
 	projectDir = ""
     manifest {
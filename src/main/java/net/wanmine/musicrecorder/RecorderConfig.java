@@ -0,0 +1,164 @@
+package net.wanmine.musicrecorder;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.logging.Level;
+
+public class RecorderConfig {
+    public static final String FILE_NAME = "config.json";
+
+    // "auto" benchmarks the available backends at startup, or one of "vorbis", "ffmpeg", "ffmpeg-persistent"
+    private String encoder = "auto";
+
+    // Folder holding the JAVE native-bin jar or the ffmpeg binary, checked before downloading. Empty disables it
+    private String ffmpegMirrorDirectory = "";
+
+    // Maven repository ffmpeg is downloaded from when the mirror has no copy. Empty disables downloads, for offline hosts
+    private String ffmpegRepository = "https://repo1.maven.org/maven2";
+
+    // Expected SHA-1 of the ffmpeg binary itself. Empty only checks downloads against the repository checksum
+    private String ffmpegSha1 = "";
+
+    // Idle ffmpeg processes the "ffmpeg-persistent" encoder keeps started, one is used up per song
+    private int ffmpegWorkers = 2;
+
+    // Songs rendering at once
+    private int renderThreads = 2;
+
+    // Threads synthesizing and encoding songs, shared by every render and kept off the common pool. 0 uses half of the cores
+    private int synthesisThreads = 0;
+
+    // Renders waiting beyond this are rejected, prewarming already at half of it
+    private int renderQueueLimit = 64;
+
+    // Renders still running after this long are stopped, 0 lets them run
+    private int renderTimeoutSeconds = 300;
+
+    // Memory for rendered notes that repeat across songs
+    private int noteCacheMegabytes = 64;
+
+    // Encoded segments reused when a song is previewed again after an edit
+    private int segmentCacheMegabytes = 32;
+
+    // Rendered per-instrument chunks, mixed down when only some instruments changed
+    private int stemCacheMegabytes = 64;
+
+    // How long a song nobody plays stays registered, so re-inserting a disk does not render it again
+    private int songReleaseGraceSeconds = 60;
+
+    // Rendered songs are registered from memory, this also writes them to the runtime pack so they can be reused later
+    private boolean persistSongs = true;
+
+    // Released songs stay on disk for reuse until the runtime pack exceeds either budget, least recently used go first
+    private int songStorageMegabytes = 1024;
+    private int songStorageFiles = 1000;
+
+    // Directory shared by every server on the host, rendered songs found there are reused instead of rendered. Empty disables it
+    private String sharedCacheDirectory = "";
+
+    public String getEncoder() {
+        return encoder;
+    }
+
+    public String getFFMPegMirrorDirectory() {
+        return ffmpegMirrorDirectory == null ? "" : ffmpegMirrorDirectory;
+    }
+
+    public String getFFMPegRepository() {
+        return ffmpegRepository == null ? "" : ffmpegRepository;
+    }
+
+    public String getFFMPegSha1() {
+        return ffmpegSha1 == null ? "" : ffmpegSha1;
+    }
+
+    public int getRenderThreads() {
+        return Math.max(1, renderThreads);
+    }
+
+    public int getSynthesisThreads() {
+        return synthesisThreads > 0 ? synthesisThreads : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    }
+
+    public int getRenderQueueLimit() {
+        return Math.max(1, renderQueueLimit);
+    }
+
+    public long getRenderTimeoutSeconds() {
+        return Math.max(0, renderTimeoutSeconds);
+    }
+
+    public int getFFMPegWorkers() {
+        return Math.max(1, ffmpegWorkers);
+    }
+
+    public long getNoteCacheBytes() {
+        return Math.max(0, noteCacheMegabytes) * 1024L * 1024L;
+    }
+
+    public long getSegmentCacheBytes() {
+        return Math.max(0, segmentCacheMegabytes) * 1024L * 1024L;
+    }
+
+    public long getStemCacheBytes() {
+        return Math.max(0, stemCacheMegabytes) * 1024L * 1024L;
+    }
+
+    public long getSongReleaseGraceSeconds() {
+        return Math.max(0, songReleaseGraceSeconds);
+    }
+
+    public boolean isPersistSongs() {
+        return persistSongs;
+    }
+
+    public long getSongStorageBytes() {
+        return Math.max(0, songStorageMegabytes) * 1024L * 1024L;
+    }
+
+    public int getSongStorageFiles() {
+        return Math.max(0, songStorageFiles);
+    }
+
+    public String getSharedCacheDirectory() {
+        return sharedCacheDirectory == null ? "" : sharedCacheDirectory;
+    }
+
+    /**
+     * Reads the config from the plugin data directory, writing the defaults back so new options show up for operators.
+     */
+    public static RecorderConfig load(Path dataDirectory) {
+        WansMusicRecorderPlugin plugin = WansMusicRecorderPlugin.getInstance();
+        Path file = dataDirectory.resolve(FILE_NAME);
+        RecorderConfig config = null;
+
+        if (Files.exists(file)) {
+            try (Reader reader = Files.newBufferedReader(file)) {
+                config = plugin.getGson().fromJson(reader, RecorderConfig.class);
+            } catch (IOException | RuntimeException e) {
+                plugin.getLogger().at(Level.WARNING).withCause(e).log("Failed to read %s, using defaults", file);
+
+                return new RecorderConfig();
+            }
+        }
+
+        if (config == null) {
+            config = new RecorderConfig();
+        }
+
+        try {
+            Files.createDirectories(dataDirectory);
+
+            try (Writer writer = Files.newBufferedWriter(file)) {
+                plugin.getGson().toJson(config, writer);
+            }
+        } catch (IOException e) {
+            plugin.getLogger().at(Level.WARNING).withCause(e).log("Failed to write %s", file);
+        }
+
+        return config;
+    }
+}
@@ -5,6 +5,7 @@ import com.google.gson.GsonBuilder;
 import com.hypixel.hytale.common.plugin.PluginManifest;
 import com.hypixel.hytale.common.semver.Semver;
 import com.hypixel.hytale.component.ComponentType;
+import com.hypixel.hytale.server.core.HytaleServer;
 import com.hypixel.hytale.server.core.asset.AssetModule;
 import com.hypixel.hytale.server.core.asset.common.CommonAssetModule;
 import com.hypixel.hytale.server.core.modules.interaction.interaction.config.Interaction;
@@ -13,20 +14,30 @@ import com.hypixel.hytale.server.core.plugin.JavaPluginInit;
 import com.hypixel.hytale.server.core.universe.world.storage.ChunkStore;
 import net.wanmine.musicrecorder.blocks.PlayerBlockComponent;
 import net.wanmine.musicrecorder.blocks.RecorderBlockComponent;
+import net.wanmine.musicrecorder.music.FFMPegProvisioner;
+import net.wanmine.musicrecorder.music.NoteCache;
+import net.wanmine.musicrecorder.music.OggGenerator;
+import net.wanmine.musicrecorder.music.RenderExecutor;
+import net.wanmine.musicrecorder.music.SharedSongCache;
+import net.wanmine.musicrecorder.music.SongAssetRegistry;
+import net.wanmine.musicrecorder.music.SongStorage;
+import net.wanmine.musicrecorder.music.SoundEventBatcher;
+import net.wanmine.musicrecorder.music.StemCache;
+import net.wanmine.musicrecorder.music.encoder.AudioEncoders;
+import net.wanmine.musicrecorder.music.encoder.FFMPegAudioEncoder;
+import net.wanmine.musicrecorder.music.encoder.PersistentFFMPegAudioEncoder;
+import net.wanmine.musicrecorder.music.encoder.SegmentCache;
+import net.wanmine.musicrecorder.music.encoder.VorbisAudioEncoder;
 import net.wanmine.musicrecorder.utils.FileTypeAdapter;
 import org.checkerframework.checker.nullness.compatqual.NonNullDecl;
-import ws.schild.jave.Version;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.*;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 public class WansMusicRecorderPlugin extends JavaPlugin {
     private static WansMusicRecorderPlugin instance;
@@ -35,6 +46,15 @@ public class WansMusicRecorderPlugin extends JavaPlugin {
     private final Gson GSON;
     private CommonAssetModule commonAssetModule;
 
+    private RecorderConfig config;
+    private AudioEncoders audioEncoders;
+    private RenderExecutor renderExecutor;
+    private ExecutorService ioExecutor;
+    private SongAssetRegistry songAssets;
+    private SongStorage songStorage;
+    private SharedSongCache sharedSongs;
+    private SoundEventBatcher soundEvents;
+
     private Path runtimeAssetsPath;
     private Path songsPath;
     private Path songsEventPath;
@@ -52,7 +72,22 @@ public class WansMusicRecorderPlugin extends JavaPlugin {
 
     @Override
     protected void setup() {
-        this.downloadFFMPeg();
+        this.config = RecorderConfig.load(this.getDataDirectory());
+
+        NoteCache.SHARED.setBudget(this.config.getNoteCacheBytes());
+        SegmentCache.SHARED.setBudget(this.config.getSegmentCacheBytes());
+        StemCache.SHARED.setBudget(this.config.getStemCacheBytes());
+
+        this.renderExecutor = new RenderExecutor(this.config.getRenderThreads(), this.config.getSynthesisThreads(), this.config.getRenderQueueLimit(), this.config.getRenderTimeoutSeconds());
+        this.audioEncoders = new AudioEncoders(OggGenerator.SAMPLE_RATE, this.renderExecutor.getSynthesisPool(), List.of(
+                new VorbisAudioEncoder(SegmentCache.SHARED),
+                new PersistentFFMPegAudioEncoder(OggGenerator.SAMPLE_RATE, this.config.getFFMPegWorkers()),
+                new FFMPegAudioEncoder()
+        ));
+        this.prepareEncoders();
+
+        // Song writes, loads and deletes block on the disk, a virtual thread each keeps them off the server scheduler
+        this.ioExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("WansMusicRecorder-IO-", 0).factory());
 
         this.runtimeAssetsPath = this.getDataDirectory().getParent().resolve(RUNTIME_PACK_NAME);
 
@@ -68,10 +103,29 @@ public class WansMusicRecorderPlugin extends JavaPlugin {
             this.songsEventPath.toFile().mkdirs();
         }
 
+        if (!this.config.getSharedCacheDirectory().isBlank()) {
+            try {
+                this.sharedSongs = new SharedSongCache(Path.of(this.config.getSharedCacheDirectory()));
+
+                this.getLogger().at(Level.INFO).log("Sharing rendered songs through %s", this.sharedSongs.getDirectory());
+            } catch (IOException | RuntimeException e) {
+                this.getLogger().at(Level.WARNING).withCause(e).log("Failed to open the shared song cache at %s, rendering locally", this.config.getSharedCacheDirectory());
+            }
+        }
+
         this.commonAssetModule = CommonAssetModule.get();
 
+        this.soundEvents = new SoundEventBatcher();
+        this.songAssets = new SongAssetRegistry(HytaleServer.SCHEDULED_EXECUTOR, this.ioExecutor, this.config.getSongReleaseGraceSeconds());
+        this.songStorage = new SongStorage(this.songAssets, HytaleServer.SCHEDULED_EXECUTOR, this.ioExecutor, this.songsPath, this.songsEventPath, this.config.isPersistSongs(), this.config.getSongStorageBytes(), this.config.getSongStorageFiles(), this.getDataDirectory());
+
+        List<String> storedSongs = this.songStorage.reconcile();
+
         this.registerRuntimePack();
 
+        this.songStorage.preRegister(this.commonAssetModule, storedSongs);
+        this.songStorage.start();
+
         this.recorderBlockType = this.getChunkStoreRegistry().registerComponent(RecorderBlockComponent.class, "WansMusicRecorderRecorder", RecorderBlockComponent.CODEC);
         this.getChunkStoreRegistry().registerSystem(new RecorderBlockComponent.RecorderRefSystem());
 
@@ -84,6 +138,38 @@ public class WansMusicRecorderPlugin extends JavaPlugin {
         this.getCodecRegistry(Interaction.CODEC).register("DiskPlayer", PlayerBlockComponent.DiskPlayerInteraction.class, PlayerBlockComponent.DiskPlayerInteraction.CODEC);
     }
 
+    @Override
+    protected void shutdown() {
+        if (this.renderExecutor != null) {
+            this.renderExecutor.shutdown();
+        }
+
+        if (this.audioEncoders != null) {
+            this.audioEncoders.shutdown();
+        }
+
+        if (this.soundEvents != null) {
+            this.soundEvents.shutdown();
+        }
+
+        if (this.songAssets != null) {
+            this.songAssets.cancelPendingRemovals();
+        }
+
+        if (this.songStorage != null) {
+            this.songStorage.stop();
+        }
+
+        // Waits for pending song writes, so the index saved below lists them
+        if (this.ioExecutor != null) {
+            this.ioExecutor.close();
+        }
+
+        if (this.songStorage != null) {
+            this.songStorage.saveIndex();
+        }
+    }
+
     private void registerRuntimePack() {
         try {
             PluginManifest manifest = PluginManifest.CoreBuilder.corePlugin(WansMusicRecorderPlugin.class)
@@ -100,87 +186,55 @@ public class WansMusicRecorderPlugin extends JavaPlugin {
         }
     }
 
-    private void downloadFFMPeg() {
-        Path destinationFolder = this.getDataDirectory().resolve("FFMPeg");
-
-        destinationFolder.toFile().mkdirs();
-
-        String os = System.getProperty("os.name").toLowerCase();
-        String arch = System.getProperty("os.arch");
+    // Downloading ffmpeg and benchmarking the encoders can take a while, renders wait for it instead of startup
+    private void prepareEncoders() {
+        Thread thread = new Thread(() -> {
+            new FFMPegProvisioner(this.getDataDirectory().resolve("FFMPeg"), this.config.getFFMPegMirrorDirectory(), this.config.getFFMPegRepository(), this.config.getFFMPegSha1()).provision();
 
-        boolean isWindows = os.contains("windows");
-        boolean isMac = os.contains("mac");
+            this.audioEncoders.benchmark(this.getDataDirectory(), this.config.getEncoder());
+        }, "WansMusicRecorder-Encoders");
 
-        String artifactId;
-
-        if (os.contains("win")) {
-            artifactId = "jave-nativebin-win64";
-        } else if (os.contains("linux")) {
-            if (arch.equals("aarch64") || arch.contains("arm64")) {
-                artifactId = "jave-nativebin-linux-arm64";
-            } else {
-                artifactId = "jave-nativebin-linux64";
-            }
-        } else if (os.contains("mac")) {
-            if (arch.contains("aarch64") || arch.contains("arm64")) {
-                artifactId = "jave-nativebin-osxm1";
-            } else {
-                artifactId = "jave-nativebin-osx64";
-            }
-        } else {
-            this.getLogger().at(Level.SEVERE).log("Unsupported OS: %s", os);
-
-            return;
-        }
-
-        String suffix = isWindows ? ".exe" : (isMac ? "-osx" : "");
-        String version = Version.getVersion();
-
-        File ffmpegFile = new File(destinationFolder.toFile(), "ffmpeg-" + arch + "-" + Version.getVersion() + suffix);
-
-        if (ffmpegFile.exists()) {
-            return;
-        }
-
-        String downloadUrl = String.format("https://repo1.maven.org/maven2/ws/schild/%s/%s/%s-%s.jar", artifactId, version, artifactId, version);
-        String internalPath = String.format("ws/schild/jave/nativebin/ffmpeg-%s%s", arch, suffix);
-
-        this.getLogger().at(Level.INFO).log("Downloading ffmpeg binary from %s to %s, internal path: %s", downloadUrl, ffmpegFile.getAbsolutePath(), internalPath);
-
-        URL url;
+        thread.setDaemon(true);
+        thread.start();
+    }
 
-        try {
-            url = new URI(downloadUrl).toURL();
-        } catch (MalformedURLException | URISyntaxException e) {
-            this.getLogger().at(Level.SEVERE).withCause(e).log("Failed to create URL for ffmpeg download");
+    public CommonAssetModule getCommonAssetModule() {
+        return commonAssetModule;
+    }
 
-            return;
-        }
+    public RecorderConfig getConfig() {
+        return config;
+    }
 
-        try (InputStream is = url.openStream(); ZipInputStream zis = new ZipInputStream(is)) {
-            ZipEntry entry;
+    public AudioEncoders getAudioEncoders() {
+        return audioEncoders;
+    }
 
-            while ((entry = zis.getNextEntry()) != null) {
-                if (entry.getName().equals(internalPath)) {
-                    Files.copy(zis, ffmpegFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-                    zis.closeEntry();
+    public RenderExecutor getRenderExecutor() {
+        return renderExecutor;
+    }
 
-                    ffmpegFile.setExecutable(true);
+    public ExecutorService getIoExecutor() {
+        return ioExecutor;
+    }
 
-                    return;
-                }
+    public SongAssetRegistry getSongAssets() {
+        return songAssets;
+    }
 
-                zis.closeEntry();
-            }
+    public SoundEventBatcher getSoundEvents() {
+        return soundEvents;
+    }
 
-            this.getLogger().at(Level.SEVERE).log("No FFMPeg found!");
-        } catch (IOException e) {
-            this.getLogger().at(Level.SEVERE).withCause(e).log("Failed to download ffmpeg binary!");
-        }
+    public SongStorage getSongStorage() {
+        return songStorage;
     }
 
-    public CommonAssetModule getCommonAssetModule() {
-        return commonAssetModule;
+    /**
+     * The song cache shared with other servers on the host, or null when it is not configured.
+     */
+    public SharedSongCache getSharedSongs() {
+        return sharedSongs;
     }
 
     public Path getSongsPath() {
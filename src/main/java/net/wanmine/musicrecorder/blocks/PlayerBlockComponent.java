@@ -34,18 +34,21 @@ import com.hypixel.hytale.server.core.universe.world.storage.EntityStore;
 import net.wanmine.musicrecorder.WansMusicRecorderPlugin;
 import net.wanmine.musicrecorder.music.MusicGraph;
 import net.wanmine.musicrecorder.music.MusicUtils;
+import net.wanmine.musicrecorder.music.RenderPriority;
+import net.wanmine.musicrecorder.music.RenderToken;
 import org.checkerframework.checker.nullness.compatqual.NonNullDecl;
 import org.checkerframework.checker.nullness.compatqual.NullableDecl;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 
 public class PlayerBlockComponent implements Component<ChunkStore> {
     public static final BuilderCodec<PlayerBlockComponent> CODEC = BuilderCodec.builder(
@@ -64,7 +67,14 @@ public class PlayerBlockComponent implements Component<ChunkStore> {
     private MusicGraph musicGraph;
     private String songName;
 
+    private static final long RETRY_SECONDS = 5;
+
     private ScheduledFuture<?> future;
+    private String heldSongKey;
+    // Identifies the current start, renders finishing after a stop or restart are dropped
+    private RenderToken playback;
+    // Stamped on the inserted disk when it was recorded, null when the song has to be looked up from its graph
+    private String recordedSongKey;
 
     public PlayerBlockComponent() {
         this.diskContainer = new SimpleItemContainer((short) 1);
@@ -94,18 +104,94 @@ public class PlayerBlockComponent implements Component<ChunkStore> {
         return diskContainer;
     }
 
-    public void registerAndPlay(Store<EntityStore> store, Vector3i pos, String worldName) {
-        this.songName = MusicUtils.registerSong(this.musicGraph, this.songName, true);
+    /**
+     * Renders the song on the render pool and then plays it in a loop until {@link #stopPlaying()}. Only the playback
+     * runs on the server scheduler. A render rejected because the pool is busy is tried again after a delay. A disk
+     * whose recorded song is still registered starts right away without going through the pool.
+     */
+    public synchronized void startPlaying(Store<EntityStore> store, Vector3i pos, String worldName) {
+        this.stopPlaying();
+
+        RenderToken playback = WansMusicRecorderPlugin.getInstance().getRenderExecutor().newToken();
+
+        this.playback = playback;
+
+        if (this.recordedSongKey != null) {
+            String songKey = WansMusicRecorderPlugin.getInstance().getSongAssets().acquireRendered(this.recordedSongKey);
+
+            if (!songKey.isEmpty()) {
+                this.onAcquired(playback, songKey, null, store, pos, worldName);
+
+                return;
+            }
+        }
+
+        // The disk may be swapped while the render waits in the queue
+        MusicGraph played = this.musicGraph.clone();
+        String playedName = this.songName;
+
+        WansMusicRecorderPlugin.getInstance().getRenderExecutor().submit(RenderPriority.JUKEBOX, playback, () -> WansMusicRecorderPlugin.getInstance().getSongAssets().acquire(played, playedName, playback))
+                .whenComplete((songKey, e) -> this.onAcquired(playback, songKey, e, store, pos, worldName));
+    }
+
+    // A render still running for this block stops at its next chunk, other blocks waiting on the same song render it themselves
+    public synchronized void stopPlaying() {
+        if (this.playback != null) {
+            this.playback.cancel("jukebox stopped");
+            this.playback = null;
+        }
+
+        if (this.future != null) {
+            this.future.cancel(false);
+            this.future = null;
+        }
+
+        if (this.heldSongKey != null) {
+            WansMusicRecorderPlugin.getInstance().getSongAssets().release(this.heldSongKey);
+
+            this.heldSongKey = null;
+        }
+    }
+
+    private synchronized void onAcquired(RenderToken playback, String songKey, Throwable error, Store<EntityStore> store, Vector3i pos, String worldName) {
+        if (this.playback != playback) {
+            // Stopped or restarted while rendering, the song was acquired for nobody
+            if (error == null && !songKey.isEmpty()) {
+                WansMusicRecorderPlugin.getInstance().getSongAssets().release(songKey);
+            }
+
+            return;
+        }
+
+        if (error instanceof RejectedExecutionException) {
+            WansMusicRecorderPlugin.getInstance().getLogger().at(Level.INFO).log("Deferring %s for %d seconds: %s", this.songName, RETRY_SECONDS, error.getMessage());
+
+            HytaleServer.SCHEDULED_EXECUTOR.schedule(() -> this.retry(playback, store, pos, worldName), RETRY_SECONDS, TimeUnit.SECONDS);
+
+            return;
+        }
+
+        // Failed or past its deadline, trying again would most likely end the same way
+        if (error != null || songKey.isEmpty()) {
+            return;
+        }
+
+        this.heldSongKey = songKey;
+        this.future = HytaleServer.SCHEDULED_EXECUTOR.scheduleAtFixedRate(() -> this.playSong(store, pos, worldName), 0, Math.max(1, Math.round(this.musicGraph.getTotalDuration())), TimeUnit.SECONDS);
+    }
 
-        playSong(store, pos, worldName);
+    private synchronized void retry(RenderToken playback, Store<EntityStore> store, Vector3i pos, String worldName) {
+        if (this.playback == playback) {
+            this.startPlaying(store, pos, worldName);
+        }
     }
 
     public void playSong(Store<EntityStore> store, Vector3i pos, String worldName) {
-        if (this.songName.isEmpty()) {
+        if (this.heldSongKey == null) {
             return;
         }
 
-        int id = SoundEvent.getAssetMap().getIndex(this.songName);
+        int id = SoundEvent.getAssetMap().getIndex(this.heldSongKey);
 
         World world = Universe.get().getWorld(worldName);
 
@@ -153,9 +239,10 @@ public class PlayerBlockComponent implements Component<ChunkStore> {
 
                 Store<EntityStore> worldStore = world.getEntityStore().getStore();
 
+                Vector3i pos = new Vector3i(localX, localY, localZ);
                 String worldName = world.getName();
 
-                instance.future = HytaleServer.SCHEDULED_EXECUTOR.scheduleAtFixedRate(() -> instance.registerAndPlay(worldStore, new Vector3i(localX, localY, localZ), worldName), 0, Math.round(instance.getMusicGraph().getTotalDuration()), TimeUnit.SECONDS);
+                HytaleServer.SCHEDULED_EXECUTOR.execute(() -> instance.startPlaying(worldStore, pos, worldName));
             }
         }
 
@@ -167,15 +254,10 @@ public class PlayerBlockComponent implements Component<ChunkStore> {
                 return;
             }
 
-            if (reason == RemoveReason.REMOVE) {
-                instance.future.cancel(true);
-
-                HytaleServer.SCHEDULED_EXECUTOR.execute(() -> {
-                    SoundEvent.getAssetStore().removeAssets(Collections.singletonList(instance.getSongName()));
-                    WansMusicRecorderPlugin.getInstance().getSongsEventPath().resolve(instance.getSongName() + ".json").toFile().delete();
-                    WansMusicRecorderPlugin.getInstance().getSongsPath().resolve(instance.getSongName() + ".ogg").toFile().delete();
-                });
+            // An unloaded block stops too, it starts again when its chunk loads
+            HytaleServer.SCHEDULED_EXECUTOR.execute(instance::stopPlaying);
 
+            if (reason == RemoveReason.REMOVE) {
                 World world = store.getExternalData().getWorld();
                 Store<EntityStore> worldStore = world.getEntityStore().getStore();
                 List<ItemStack> allItemStacks = instance.getDiskContainer().dropAllItemStacks();
@@ -250,17 +332,10 @@ public class PlayerBlockComponent implements Component<ChunkStore> {
 
                         world.setBlockInteractionState(pos, Objects.requireNonNull(world.getBlockType(pos)), "Off");
 
-                        CompletableFuture.runAsync(() -> {
-                            if (diskPlayerComponent.future != null) {
-                                diskPlayerComponent.future.cancel(true);
-                            }
-
-                            SoundEvent.getAssetStore().removeAssets(Collections.singletonList(diskPlayerComponent.getSongName()));
-                            WansMusicRecorderPlugin.getInstance().getSongsEventPath().resolve(diskPlayerComponent.getSongName() + ".json").toFile().delete();
-                            WansMusicRecorderPlugin.getInstance().getSongsPath().resolve(diskPlayerComponent.getSongName() + ".ogg").toFile().delete();
-                        }, HytaleServer.SCHEDULED_EXECUTOR).thenAccept(_ -> {
+                        CompletableFuture.runAsync(diskPlayerComponent::stopPlaying, HytaleServer.SCHEDULED_EXECUTOR).thenAccept(_ -> {
                             diskPlayerComponent.setSongName("");
                             diskPlayerComponent.musicGraph = new MusicGraph(3, 120, 26);
+                            diskPlayerComponent.recordedSongKey = null;
                         });
                     }
 
@@ -276,6 +351,8 @@ public class PlayerBlockComponent implements Component<ChunkStore> {
                 if (diskMetadata != null) {
                     diskPlayerComponent.setSongName(diskMetadata.getSongName().replace(" ", "_") + "_" + UUID.randomUUID());
                     diskPlayerComponent.musicGraph = diskMetadata.getMusicGraph();
+                    // A fingerprint from an older render version names audio this version would not render
+                    diskPlayerComponent.recordedSongKey = diskMetadata.isFingerprintCurrent() ? diskMetadata.getFingerprint() : null;
                 }
 
                 for (short i = 0; i < playerContainer.getCapacity(); i++) {
@@ -290,7 +367,7 @@ public class PlayerBlockComponent implements Component<ChunkStore> {
 
                         String worldName = world.getName();
 
-                        diskPlayerComponent.future = HytaleServer.SCHEDULED_EXECUTOR.scheduleAtFixedRate(() -> diskPlayerComponent.registerAndPlay(worldStore, pos, worldName), 0, Math.round(diskPlayerComponent.getMusicGraph().getTotalDuration()), TimeUnit.SECONDS);
+                        HytaleServer.SCHEDULED_EXECUTOR.execute(() -> diskPlayerComponent.startPlaying(worldStore, pos, worldName));
 
                         break;
                     }
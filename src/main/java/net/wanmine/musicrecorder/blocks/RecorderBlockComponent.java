@@ -12,7 +12,6 @@ import com.hypixel.hytale.math.vector.Vector3f;
 import com.hypixel.hytale.math.vector.Vector3i;
 import com.hypixel.hytale.protocol.InteractionType;
 import com.hypixel.hytale.protocol.SoundCategory;
-import com.hypixel.hytale.server.core.HytaleServer;
 import com.hypixel.hytale.server.core.entity.InteractionContext;
 import com.hypixel.hytale.server.core.entity.entities.Player;
 import com.hypixel.hytale.server.core.inventory.ItemStack;
@@ -34,13 +33,17 @@ import net.wanmine.musicrecorder.WansMusicRecorderPlugin;
 import net.wanmine.musicrecorder.gui.RecorderGUI;
 import net.wanmine.musicrecorder.music.MusicGraph;
 import net.wanmine.musicrecorder.music.MusicUtils;
+import net.wanmine.musicrecorder.music.OggGenerator;
+import net.wanmine.musicrecorder.music.RenderPriority;
+import net.wanmine.musicrecorder.music.RenderToken;
+import net.wanmine.musicrecorder.music.SongKey;
 import org.checkerframework.checker.nullness.compatqual.NonNullDecl;
 import org.checkerframework.checker.nullness.compatqual.NullableDecl;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
 
 public class RecorderBlockComponent implements Component<ChunkStore> {
     public static final BuilderCodec<RecorderBlockComponent> CODEC = BuilderCodec.builder(
@@ -49,7 +52,12 @@ public class RecorderBlockComponent implements Component<ChunkStore> {
             )
             .append(new KeyedCodec<>("Disk", ItemContainer.CODEC), (s, v) -> s.diskContainer = (SimpleItemContainer) v, s -> s.diskContainer)
             .add()
-            .append(new KeyedCodec<>("MusicGraph", MusicGraph.CODEC), (s, v) -> s.musicGraph = v, s -> s.musicGraph)
+            // Stored with repeated bars as patterns, edited note by note
+            .append(new KeyedCodec<>("MusicGraph", MusicGraph.CODEC), (s, v) -> {
+                v.inlinePatterns();
+
+                s.musicGraph = v;
+            }, s -> compact(s.musicGraph))
             .add()
             .append(new KeyedCodec<>("SongName", Codec.STRING), (s, v) -> s.songName = v, s -> s.songName)
             .add()
@@ -62,6 +70,8 @@ public class RecorderBlockComponent implements Component<ChunkStore> {
     private String songName;
     private boolean isAnglo;
 
+    private RenderToken previewToken;
+
     public RecorderBlockComponent() {
         this.diskContainer = new SimpleItemContainer((short) 1);
         this.musicGraph = new MusicGraph(3, 120, 26);
@@ -84,10 +94,84 @@ public class RecorderBlockComponent implements Component<ChunkStore> {
         return songName;
     }
 
-    public void registerAndPlay(Store<EntityStore> store) {
-        CompletableFuture.supplyAsync(() -> MusicUtils.registerSong(this.musicGraph, this.songName, false), HytaleServer.SCHEDULED_EXECUTOR).thenAccept(outStr -> playSong(outStr, store));
+    /**
+     * Stores the song on the disk and renders it in the background, so players receiving the disk find it ready.
+     */
+    public void recordDisk() {
+        ItemStack stack = this.diskContainer.getItemStack((short) 0);
+
+        if (stack == null) {
+            return;
+        }
+
+        MusicGraph recorded = compact(this.musicGraph);
+        String recordedName = this.songName;
+
+        this.diskContainer.setItemStackForSlot((short) 0, stack.withMetadata("SavedSong", DiskMetadata.CODEC, new DiskMetadata(recorded, recordedName)));
+
+        RenderToken token = WansMusicRecorderPlugin.getInstance().getRenderExecutor().newToken();
+
+        WansMusicRecorderPlugin.getInstance().getRenderExecutor().submit(RenderPriority.PREWARM, token, () -> {
+            String songKey = MusicUtils.prepareSong(recorded, recordedName, token);
+
+            // Without a file behind it the audio would stay in memory until the server stops
+            if (!songKey.isEmpty() && !WansMusicRecorderPlugin.getInstance().getConfig().isPersistSongs()) {
+                WansMusicRecorderPlugin.getInstance().getSongAssets().retain(songKey, WansMusicRecorderPlugin.getInstance().getConfig().getSongReleaseGraceSeconds());
+            }
+
+            return songKey;
+        }).exceptionally(e -> {
+            WansMusicRecorderPlugin.getInstance().getLogger().at(Level.INFO).log("Skipped prerendering %s: %s", recordedName, e.getMessage());
+
+            return "";
+        });
     }
 
+    /**
+     * Previews the song, calling off a preview of this recorder that is still rendering.
+     */
+    public synchronized void registerAndPlay(Store<EntityStore> store) {
+        this.cancelPreview("replaced by a newer preview");
+
+        RenderToken token = WansMusicRecorderPlugin.getInstance().getRenderExecutor().newToken();
+
+        this.previewToken = token;
+
+        // The player keeps editing while the render waits and runs, and compacted like a recorded disk the preview
+        // shares its render
+        MusicGraph previewed = compact(this.musicGraph);
+        String previewedName = this.songName;
+
+        WansMusicRecorderPlugin.getInstance().getRenderExecutor().submit(RenderPriority.PREVIEW, token, () -> WansMusicRecorderPlugin.getInstance().getSongAssets().acquire(previewed, previewedName, token)).whenComplete((songKey, e) -> {
+            if (e != null) {
+                if (!token.isCancelled()) {
+                    WansMusicRecorderPlugin.getInstance().getLogger().at(Level.WARNING).log("Could not preview %s: %s", previewedName, e.getMessage());
+                }
+
+                return;
+            }
+
+            // Rendered just before being called off, nobody is listening anymore
+            if (token.isCancelled()) {
+                if (!songKey.isEmpty()) {
+                    WansMusicRecorderPlugin.getInstance().getSongAssets().release(songKey);
+                }
+
+                return;
+            }
+
+            playSong(songKey, store);
+        });
+    }
+
+    public synchronized void cancelPreview(String reason) {
+        if (this.previewToken != null) {
+            this.previewToken.cancel(reason);
+            this.previewToken = null;
+        }
+    }
+
+    // The preview only holds the song while starting it, the grace period keeps it around for the next preview
     public static void playSong(String songKey, Store<EntityStore> store) {
         if (songKey.isEmpty()) {
             return;
@@ -97,10 +181,16 @@ public class RecorderBlockComponent implements Component<ChunkStore> {
 
         SoundUtil.playSoundEvent2d(id, SoundCategory.SFX, store);
 
-        SoundEvent.getAssetStore().removeAssets(Collections.singletonList(songKey));
+        WansMusicRecorderPlugin.getInstance().getSongAssets().release(songKey);
+    }
 
-        WansMusicRecorderPlugin.getInstance().getSongsEventPath().resolve(songKey + ".json").toFile().delete();
-        WansMusicRecorderPlugin.getInstance().getSongsPath().resolve(songKey + ".ogg").toFile().delete();
+    // A copy with repeated bars turned into patterns, which store and render them once
+    private static MusicGraph compact(MusicGraph musicGraph) {
+        MusicGraph compacted = musicGraph.clone();
+
+        compacted.extractRepeatedBars(MusicGraph.BAR_LENGTH);
+
+        return compacted;
     }
 
     public MusicGraph getMusicGraph() {
@@ -141,6 +231,8 @@ public class RecorderBlockComponent implements Component<ChunkStore> {
                 return;
             }
 
+            instance.cancelPreview("recorder removed");
+
             if (reason == RemoveReason.REMOVE) {
                 World world = store.getExternalData().getWorld();
                 Store<EntityStore> worldStore = world.getEntityStore().getStore();
@@ -267,8 +359,12 @@ public class RecorderBlockComponent implements Component<ChunkStore> {
                 DiskMetadata diskMetadata = itemInHand.getFromMetadataOrNull("SavedSong", DiskMetadata.CODEC);
 
                 if (diskMetadata != null) {
+                    MusicGraph musicGraph = diskMetadata.getMusicGraph().clone();
+
+                    musicGraph.inlinePatterns();
+
                     recorderComponent.setSongName(diskMetadata.getSongName());
-                    recorderComponent.musicGraph = diskMetadata.getMusicGraph();
+                    recorderComponent.musicGraph = musicGraph;
                 }
 
                 for (short i = 0; i < playerContainer.getCapacity(); i++) {
@@ -292,6 +388,7 @@ public class RecorderBlockComponent implements Component<ChunkStore> {
     public static class DiskMetadata {
         private MusicGraph musicGraph;
         private String songName;
+        private String fingerprint;
 
         public static final BuilderCodec<DiskMetadata> CODEC = BuilderCodec.builder(
                         DiskMetadata.class,
@@ -301,6 +398,8 @@ public class RecorderBlockComponent implements Component<ChunkStore> {
                 .add()
                 .append(new KeyedCodec<>("SongName", Codec.STRING), (o, i) -> o.songName = i, o -> o.songName)
                 .add()
+                .append(new KeyedCodec<>("Fingerprint", Codec.STRING), (o, i) -> o.fingerprint = i, o -> o.fingerprint)
+                .add()
                 .build();
 
         private DiskMetadata() { }
@@ -308,6 +407,7 @@ public class RecorderBlockComponent implements Component<ChunkStore> {
         public DiskMetadata(MusicGraph musicGraph, String songName) {
             this.musicGraph = musicGraph;
             this.songName = songName;
+            this.fingerprint = SongKey.of(musicGraph, OggGenerator.SAMPLE_RATE);
         }
 
         public MusicGraph getMusicGraph() {
@@ -317,5 +417,17 @@ public class RecorderBlockComponent implements Component<ChunkStore> {
         public String getSongName() {
             return songName;
         }
+
+        /**
+         * The {@link SongKey} of the song when it was recorded, null on disks recorded before fingerprints existed.
+         * It no longer matches the song once the render version changes.
+         */
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        public boolean isFingerprintCurrent() {
+            return this.fingerprint != null && this.fingerprint.equals(SongKey.of(this.musicGraph, OggGenerator.SAMPLE_RATE));
+        }
     }
 }
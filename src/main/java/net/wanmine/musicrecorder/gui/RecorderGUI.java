@@ -8,7 +8,6 @@ import com.hypixel.hytale.component.Store;
 import com.hypixel.hytale.protocol.packets.interface_.CustomPageLifetime;
 import com.hypixel.hytale.protocol.packets.interface_.CustomUIEventBindingType;
 import com.hypixel.hytale.server.core.entity.entities.player.pages.InteractiveCustomUIPage;
-import com.hypixel.hytale.server.core.inventory.ItemStack;
 import com.hypixel.hytale.server.core.ui.DropdownEntryInfo;
 import com.hypixel.hytale.server.core.ui.LocalizableString;
 import com.hypixel.hytale.server.core.ui.builder.EventData;
@@ -398,17 +397,7 @@ public class RecorderGUI extends InteractiveCustomUIPage<RecorderGUI.RecorderGUI
                 this.buildNoteGrid(commandBuilder, eventBuilder);
             }
             case "PlaySong" -> this.recorderBlock.registerAndPlay(world.getEntityStore().getStore());
-            case "RecordSong" -> {
-                ItemStack stack = this.recorderBlock.getDiskContainer().getItemStack((short) 0);
-
-                if (stack == null) {
-                    return;
-                }
-
-                stack = stack.withMetadata("SavedSong", RecorderBlockComponent.DiskMetadata.CODEC, new RecorderBlockComponent.DiskMetadata(this.recorderBlock.getMusicGraph(), this.recorderBlock.getSongName()));
-
-                this.recorderBlock.getDiskContainer().setItemStackForSlot((short) 0, stack);
-            }
+            case "RecordSong" -> this.recorderBlock.recordDisk();
             case "ChangeAng" -> {
                 this.recorderBlock.setAnglo(data.isAnglo());
 
@@ -428,6 +417,14 @@ public class RecorderGUI extends InteractiveCustomUIPage<RecorderGUI.RecorderGUI
         this.sendUpdate(commandBuilder, eventBuilder, false);
     }
 
+    // Nobody is left to hear a preview that is still rendering
+    @Override
+    public void onDismiss(@NonNullDecl Ref<EntityStore> ref, @NonNullDecl Store<EntityStore> store) {
+        super.onDismiss(ref, store);
+
+        this.recorderBlock.cancelPreview("recorder closed");
+    }
+
     public static class RecorderGUIEventData {
         private int notePosition;
         private int noteOctave;
@@ -0,0 +1,65 @@
+package net.wanmine.musicrecorder.music;
+
+public class Envelope {
+    private static final double SUSTAIN_LEVEL = 0.7;
+
+    private final int attackEnd;
+    private final int decayEnd;
+    private final int releaseStart;
+    private final int length;
+
+    private final double attackSlope;
+    private final double decayBase;
+    private final double decaySlope;
+    private final double releaseBase;
+    private final double releaseSlope;
+
+    public Envelope(int length, int sampleRate) {
+        double duration = (double) length / sampleRate;
+        double attack = Math.min(0.01, duration * 0.1);
+        double decay = Math.min(0.05, duration * 0.2);
+        double release = Math.min(0.1, duration * 0.3);
+
+        this.length = length;
+        this.attackEnd = (int) Math.ceil(attack * sampleRate);
+        this.decayEnd = Math.max(this.attackEnd, (int) Math.ceil((attack + decay) * sampleRate));
+        this.releaseStart = Math.max(this.decayEnd, (int) Math.ceil((duration - release) * sampleRate));
+
+        // Every stage is linear in the sample index, so each one is stored as level = base + slope * index
+        this.attackSlope = attack > 0 ? 1.0 / (attack * sampleRate) : 0.0;
+        this.decayBase = decay > 0 ? 1.0 + (1.0 - SUSTAIN_LEVEL) * attack / decay : 1.0;
+        this.decaySlope = decay > 0 ? -(1.0 - SUSTAIN_LEVEL) / (decay * sampleRate) : 0.0;
+        this.releaseBase = release > 0 ? SUSTAIN_LEVEL * (1.0 + (duration - release) / release) : SUSTAIN_LEVEL;
+        this.releaseSlope = release > 0 ? -SUSTAIN_LEVEL / (release * sampleRate) : 0.0;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Multiplies {@code count} samples in {@code out} by the envelope, starting {@code offset} samples after the note start.
+     */
+    public void apply(int offset, float[] out, int outOffset, int count) {
+        int end = offset + count;
+        int index = outOffset;
+
+        index = multiply(out, index, offset, end, 0, this.attackEnd, 0.0, this.attackSlope);
+        index = multiply(out, index, offset, end, this.attackEnd, this.decayEnd, this.decayBase, this.decaySlope);
+        index = multiply(out, index, offset, end, this.decayEnd, this.releaseStart, SUSTAIN_LEVEL, 0.0);
+        multiply(out, index, offset, end, this.releaseStart, Integer.MAX_VALUE, this.releaseBase, this.releaseSlope);
+    }
+
+    private static int multiply(float[] out, int index, int from, int to, int stageStart, int stageEnd, double base, double slope) {
+        int start = Math.max(from, stageStart);
+        int end = Math.min(to, stageEnd);
+
+        if (start >= end) {
+            return index;
+        }
+
+        SynthKernels.INSTANCE.ramp(base, slope, start, out, index, end - start);
+
+        return index + end - start;
+    }
+}
@@ -13,10 +13,6 @@ public class FFMPegLocator implements ProcessLocator {
     private final String path;
 
     public FFMPegLocator() {
-        String os = System.getProperty("os.name").toLowerCase();
-        boolean isWindows = os.contains("windows");
-        boolean isMac = os.contains("mac");
-
         HytaleLogger logger = WansMusicRecorderPlugin.getInstance().getLogger();
 
         File dirFolder = new File(WansMusicRecorderPlugin.getInstance().getDataDirectory().toFile(), "FFMPeg/");
@@ -27,10 +23,7 @@ public class FFMPegLocator implements ProcessLocator {
             return;
         }
 
-        String suffix = isWindows ? ".exe" : (isMac ? "-osx" : "");
-        String arch = System.getProperty("os.arch");
-
-        File ffmpegFile = new File(dirFolder, "ffmpeg-" + arch + "-" + Version.getVersion() + suffix);
+        File ffmpegFile = new File(dirFolder, getBinaryName());
 
         if (!ffmpegFile.exists()) {
             path = null;
@@ -41,6 +34,16 @@ public class FFMPegLocator implements ProcessLocator {
         path = ffmpegFile.getAbsolutePath();
     }
 
+    public static String getSuffix() {
+        String os = System.getProperty("os.name").toLowerCase();
+
+        return os.contains("windows") ? ".exe" : (os.contains("mac") ? "-osx" : "");
+    }
+
+    public static String getBinaryName() {
+        return "ffmpeg-" + System.getProperty("os.arch") + "-" + Version.getVersion() + getSuffix();
+    }
+
     @Override
     public String getExecutablePath() {
         return path;
@@ -0,0 +1,247 @@
+package net.wanmine.musicrecorder.music;
+
+import net.wanmine.musicrecorder.WansMusicRecorderPlugin;
+import ws.schild.jave.Version;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.logging.Level;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Puts the ffmpeg binary from the JAVE native-bin jar into the plugin data directory. The binary is taken from a local
+ * mirror directory when it holds the binary or the jar, and downloaded from a Maven repository otherwise. Downloaded
+ * jars are checked against the checksum the repository publishes, binaries against the configured SHA-1 if any.
+ */
+public class FFMPegProvisioner {
+    private static final int CONNECT_TIMEOUT_MILLIS = 10_000;
+    private static final int READ_TIMEOUT_MILLIS = 60_000;
+
+    private final Path destinationFolder;
+    private final String mirrorDirectory;
+    private final String repository;
+    private final String expectedSha1;
+
+    public FFMPegProvisioner(Path destinationFolder, String mirrorDirectory, String repository, String expectedSha1) {
+        this.destinationFolder = destinationFolder;
+        this.mirrorDirectory = mirrorDirectory;
+        this.repository = repository;
+        this.expectedSha1 = expectedSha1;
+    }
+
+    /**
+     * Returns whether the binary is in place afterwards. Never throws, the Vorbis encoder works without ffmpeg.
+     */
+    public boolean provision() {
+        String artifactId = getArtifactId();
+
+        if (artifactId == null) {
+            WansMusicRecorderPlugin.getInstance().getLogger().at(Level.SEVERE).log("Unsupported OS: %s", System.getProperty("os.name"));
+
+            return false;
+        }
+
+        Path binary = this.destinationFolder.resolve(FFMPegLocator.getBinaryName());
+        String jarName = artifactId + "-" + Version.getVersion() + ".jar";
+
+        try {
+            Files.createDirectories(this.destinationFolder);
+
+            if (Files.exists(binary)) {
+                if (this.verify(binary)) {
+                    return true;
+                }
+
+                WansMusicRecorderPlugin.getInstance().getLogger().at(Level.WARNING).log("FFMPeg binary %s does not match the configured checksum, replacing it", binary);
+
+                Files.delete(binary);
+            }
+
+            if (!this.mirrorDirectory.isBlank() && this.installFromMirror(Path.of(this.mirrorDirectory), jarName, binary)) {
+                return true;
+            }
+
+            if (!this.repository.isBlank()) {
+                return this.installFromRepository(artifactId, jarName, binary);
+            }
+
+            WansMusicRecorderPlugin.getInstance().getLogger().at(Level.WARNING).log("FFMPeg is not in the mirror and downloads are disabled, only the Vorbis encoder is available");
+        } catch (IOException | RuntimeException e) {
+            WansMusicRecorderPlugin.getInstance().getLogger().at(Level.SEVERE).withCause(e).log("Failed to provision the ffmpeg binary");
+        }
+
+        return false;
+    }
+
+    private boolean installFromMirror(Path mirror, String jarName, Path binary) throws IOException {
+        Path mirroredBinary = mirror.resolve(binary.getFileName());
+
+        if (Files.isRegularFile(mirroredBinary)) {
+            Path temporaryFile = Files.createTempFile(this.destinationFolder, "ffmpeg-", ".part");
+
+            try {
+                Files.copy(mirroredBinary, temporaryFile, StandardCopyOption.REPLACE_EXISTING);
+
+                if (this.install(temporaryFile, binary, mirroredBinary.toString())) {
+                    return true;
+                }
+            } finally {
+                Files.deleteIfExists(temporaryFile);
+            }
+        }
+
+        Path mirroredJar = mirror.resolve(jarName);
+
+        if (!Files.isRegularFile(mirroredJar)) {
+            WansMusicRecorderPlugin.getInstance().getLogger().at(Level.INFO).log("No ffmpeg binary or %s in mirror %s", jarName, mirror);
+
+            return false;
+        }
+
+        Path checksum = mirror.resolve(jarName + ".sha1");
+
+        if (Files.isRegularFile(checksum) && !checksumMatches(mirroredJar, Files.readString(checksum, StandardCharsets.US_ASCII))) {
+            WansMusicRecorderPlugin.getInstance().getLogger().at(Level.WARNING).log("Mirrored %s does not match its checksum", mirroredJar);
+
+            return false;
+        }
+
+        return this.extract(mirroredJar, binary);
+    }
+
+    private boolean installFromRepository(String artifactId, String jarName, Path binary) throws IOException {
+        String base = String.format("%s/ws/schild/%s/%s/%s", this.repository.replaceAll("/+$", ""), artifactId, Version.getVersion(), jarName);
+        Path jar = Files.createTempFile(this.destinationFolder, artifactId + "-", ".jar.part");
+
+        WansMusicRecorderPlugin.getInstance().getLogger().at(Level.INFO).log("Downloading ffmpeg binary from %s to %s", base, binary);
+
+        try {
+            String checksum;
+
+            try (InputStream in = open(base + ".sha1")) {
+                checksum = new String(in.readAllBytes(), StandardCharsets.US_ASCII);
+            }
+
+            try (InputStream in = open(base)) {
+                Files.copy(in, jar, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            if (!checksumMatches(jar, checksum)) {
+                WansMusicRecorderPlugin.getInstance().getLogger().at(Level.SEVERE).log("Downloaded %s does not match the repository checksum", jarName);
+
+                return false;
+            }
+
+            return this.extract(jar, binary);
+        } finally {
+            Files.deleteIfExists(jar);
+        }
+    }
+
+    private boolean extract(Path jar, Path binary) throws IOException {
+        String internalPath = "ws/schild/jave/nativebin/ffmpeg-" + System.getProperty("os.arch") + FFMPegLocator.getSuffix();
+        Path temporaryFile = Files.createTempFile(this.destinationFolder, "ffmpeg-", ".part");
+
+        try (ZipFile zip = new ZipFile(jar.toFile())) {
+            ZipEntry entry = zip.getEntry(internalPath);
+
+            if (entry == null) {
+                WansMusicRecorderPlugin.getInstance().getLogger().at(Level.SEVERE).log("No FFMPeg found in %s at %s", jar.getFileName(), internalPath);
+
+                return false;
+            }
+
+            try (InputStream in = zip.getInputStream(entry)) {
+                Files.copy(in, temporaryFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            return this.install(temporaryFile, binary, jar.getFileName().toString());
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    // Moved into place only once complete and verified, so the locator never sees a partial binary
+    private boolean install(Path temporaryFile, Path binary, String source) throws IOException {
+        if (!this.verify(temporaryFile)) {
+            WansMusicRecorderPlugin.getInstance().getLogger().at(Level.SEVERE).log("FFMPeg binary from %s does not match the configured checksum", source);
+
+            return false;
+        }
+
+        temporaryFile.toFile().setExecutable(true);
+
+        Files.move(temporaryFile, binary, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        WansMusicRecorderPlugin.getInstance().getLogger().at(Level.INFO).log("Installed ffmpeg binary from %s", source);
+
+        return true;
+    }
+
+    private boolean verify(Path binary) throws IOException {
+        return this.expectedSha1.isBlank() || checksumMatches(binary, this.expectedSha1);
+    }
+
+    // Checksum files may hold the file name after the hash
+    private static boolean checksumMatches(Path file, String checksum) throws IOException {
+        String[] parts = checksum.trim().split("\\s+");
+
+        return parts[0].equalsIgnoreCase(sha1(file));
+    }
+
+    private static String sha1(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+
+    private static InputStream open(String url) throws IOException {
+        try {
+            URLConnection connection = new URI(url).toURL().openConnection();
+
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+
+            return connection.getInputStream();
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            throw new IOException("Invalid ffmpeg download URL " + url, e);
+        }
+    }
+
+    private static String getArtifactId() {
+        String os = System.getProperty("os.name").toLowerCase();
+        String arch = System.getProperty("os.arch");
+        boolean arm = arch.contains("aarch64") || arch.contains("arm64");
+
+        if (os.contains("win")) {
+            return "jave-nativebin-win64";
+        } else if (os.contains("linux")) {
+            return arm ? "jave-nativebin-linux-arm64" : "jave-nativebin-linux64";
+        } else if (os.contains("mac")) {
+            return arm ? "jave-nativebin-osxm1" : "jave-nativebin-osx64";
+        }
+
+        return null;
+    }
+}
@@ -8,7 +8,18 @@ import com.hypixel.hytale.codec.codecs.array.ArrayCodec;
 import java.util.*;
 
 public class MusicGraph {
+    // A 4/4 bar, the grid is in sixteenth notes
+    public static final int BAR_LENGTH = 16;
+
+    private static final Comparator<Note> BAR_ORDER = Comparator.comparingInt(Note::getPosition)
+            .thenComparingInt(Note::getOctave)
+            .thenComparingInt(Note::getSemitone)
+            .thenComparing(Note::getInstrument)
+            .thenComparingInt(Note::getLength);
+
     private final List<Note> notes;
+    private final Map<String, Pattern> patterns;
+    private final List<PatternPlacement> arrangement;
     private int tempo;
     private int maxOctaves;
     private int gridLength;
@@ -29,6 +40,20 @@ public class MusicGraph {
                 Collections.addAll(graph.notes, value);
             }, graph -> graph.notes.toArray(new Note[0]))
             .add()
+            .append(new KeyedCodec<>("Patterns", new ArrayCodec<>(Pattern.CODEC, Pattern[]::new)), (graph, value) -> {
+                graph.patterns.clear();
+
+                for (Pattern pattern : value) {
+                    graph.patterns.put(pattern.getName(), pattern);
+                }
+            }, graph -> graph.patterns.values().toArray(new Pattern[0]))
+            .add()
+            .append(new KeyedCodec<>("Arrangement", new ArrayCodec<>(PatternPlacement.CODEC, PatternPlacement[]::new)), (graph, value) -> {
+                graph.arrangement.clear();
+
+                Collections.addAll(graph.arrangement, value);
+            }, graph -> graph.arrangement.toArray(new PatternPlacement[0]))
+            .add()
             .build();
 
     public MusicGraph() {
@@ -37,6 +62,8 @@ public class MusicGraph {
 
     public MusicGraph(int maxOctaves, int tempo, int gridLength) {
         this.notes = new ArrayList<>();
+        this.patterns = new LinkedHashMap<>();
+        this.arrangement = new ArrayList<>();
         this.maxOctaves = maxOctaves;
         this.tempo = tempo;
         this.gridLength = gridLength;
@@ -44,9 +71,15 @@ public class MusicGraph {
 
     public MusicGraph(MusicGraph other) {
         this.notes = new ArrayList<>(other.notes);
+        this.patterns = new LinkedHashMap<>();
+        this.arrangement = new ArrayList<>(other.arrangement);
         this.tempo = other.tempo;
         this.maxOctaves = other.maxOctaves;
         this.gridLength = other.gridLength;
+
+        for (Pattern pattern : other.patterns.values()) {
+            this.patterns.put(pattern.getName(), new Pattern(pattern));
+        }
     }
 
     public boolean addNote(Note note) {
@@ -84,12 +117,169 @@ public class MusicGraph {
 
     public void clear() {
         notes.clear();
+        patterns.clear();
+        arrangement.clear();
     }
 
     public List<Note> getNotes() {
         return Collections.unmodifiableList(notes);
     }
 
+    /**
+     * Adds a pattern or replaces the one with the same name, which changes every placement of it.
+     */
+    public void putPattern(Pattern pattern) {
+        patterns.put(pattern.getName(), pattern);
+    }
+
+    public Pattern getPattern(String name) {
+        return patterns.get(name);
+    }
+
+    public boolean removePattern(String name) {
+        arrangement.removeIf(placement -> placement.getPattern().equals(name));
+
+        return patterns.remove(name) != null;
+    }
+
+    public Collection<Pattern> getPatterns() {
+        return Collections.unmodifiableCollection(patterns.values());
+    }
+
+    public boolean placePattern(String name, int position) {
+        Pattern pattern = patterns.get(name);
+
+        if (pattern == null || position < 0 || position + pattern.getLength() > gridLength) {
+            return false;
+        }
+
+        return arrangement.add(new PatternPlacement(name, position));
+    }
+
+    public boolean removePlacement(String name, int position) {
+        return arrangement.remove(new PatternPlacement(name, position));
+    }
+
+    public List<PatternPlacement> getArrangement() {
+        return Collections.unmodifiableList(arrangement);
+    }
+
+    /**
+     * Moves the notes starting in {@code [position, position + length)} into a new pattern and places it where they were.
+     */
+    public boolean extractPattern(String name, int position, int length) {
+        if (patterns.containsKey(name) || position < 0 || position + length > gridLength) {
+            return false;
+        }
+
+        Pattern pattern = new Pattern(name, length);
+        List<Note> extracted = notes.stream()
+                .filter(note -> position <= note.getPosition() && note.getEndPosition() <= position + length)
+                .toList();
+
+        for (Note note : extracted) {
+            pattern.addNote(new Note(note.getOctave(), note.getSemitone(), note.getPosition() - position, note.getLength(), note.getInstrument()));
+        }
+
+        notes.removeAll(extracted);
+        patterns.put(name, pattern);
+        arrangement.add(new PatternPlacement(name, position));
+
+        return true;
+    }
+
+    /**
+     * Turns every bar whose loose notes repeat elsewhere in the song into a pattern placed at each of those bars, so the
+     * notes are stored once and rendered once. Notes crossing a bar line stay loose. Returns how many bars were replaced.
+     */
+    public int extractRepeatedBars(int barLength) {
+        Map<List<Note>, List<Integer>> bars = new LinkedHashMap<>();
+
+        for (int start = 0; start + barLength <= gridLength; start += barLength) {
+            List<Note> content = getBarNotes(start, barLength);
+
+            if (!content.isEmpty()) {
+                bars.computeIfAbsent(content, key -> new ArrayList<>()).add(start);
+            }
+        }
+
+        int replaced = 0;
+
+        for (List<Integer> starts : bars.values()) {
+            if (starts.size() < 2) {
+                continue;
+            }
+
+            int index = patterns.size() + 1;
+            String name;
+
+            do {
+                name = "Bar" + index++;
+            } while (patterns.containsKey(name));
+
+            extractPattern(name, starts.getFirst(), barLength);
+
+            for (int i = 1; i < starts.size(); i++) {
+                int start = starts.get(i);
+
+                notes.removeIf(note -> start <= note.getPosition() && note.getEndPosition() <= start + barLength);
+                arrangement.add(new PatternPlacement(name, start));
+            }
+
+            replaced += starts.size();
+        }
+
+        return replaced;
+    }
+
+    /**
+     * Replaces the placed patterns with their notes, for editing note by note.
+     */
+    public void inlinePatterns() {
+        List<Note> all = getAllNotes();
+
+        notes.clear();
+        notes.addAll(all);
+        patterns.clear();
+        arrangement.clear();
+    }
+
+    // The loose notes within the bar relative to its start, in a fixed order so equal bars compare equal
+    private List<Note> getBarNotes(int start, int barLength) {
+        List<Note> content = new ArrayList<>();
+
+        for (Note note : notes) {
+            if (start <= note.getPosition() && note.getEndPosition() <= start + barLength) {
+                content.add(new Note(note.getOctave(), note.getSemitone(), note.getPosition() - start, note.getLength(), note.getInstrument()));
+            }
+        }
+
+        content.sort(BAR_ORDER);
+
+        return content;
+    }
+
+    /**
+     * The loose notes followed by the notes of every placed pattern at their position in the song.
+     */
+    public List<Note> getAllNotes() {
+        List<Note> all = new ArrayList<>(notes);
+
+        for (PatternPlacement placement : arrangement) {
+            Pattern pattern = patterns.get(placement.getPattern());
+
+            if (pattern == null) {
+                continue;
+            }
+
+            for (Note note : pattern.getNotes()) {
+                all.add(new Note(note.getOctave(), note.getSemitone(), placement.getPosition() + note.getPosition(), note.getLength(), note.getInstrument()));
+            }
+        }
+
+        return all;
+    }
+
     public List<Note> getNotesForInstrument(Instrument instrument) {
         return notes.stream()
                 .filter(note -> note.getInstrument() == instrument)
@@ -111,7 +301,7 @@ public class MusicGraph {
     public boolean hasNotesAfter(int position) {
         return !notes.stream()
                 .filter(note -> position < note.getEndPosition())
-                .toList().isEmpty();
+                .toList().isEmpty() || getArrangementEnd() > position;
     }
 
     public int getTotalRows() {
@@ -145,6 +335,11 @@ public class MusicGraph {
         this.gridLength = gridLength;
 
         notes.removeIf(note -> note.getEndPosition() > gridLength);
+        arrangement.removeIf(placement -> {
+            Pattern pattern = patterns.get(placement.getPattern());
+
+            return pattern == null || placement.getPosition() + pattern.getLength() > gridLength;
+        });
     }
 
     public double getGridSpaceDuration() {
@@ -155,15 +350,36 @@ public class MusicGraph {
     }
 
     public double getTotalDuration() {
-        int lastPosition = notes.stream().mapToInt(Note::getEndPosition).max().orElse(gridLength);
+        int lastPosition = notes.stream().mapToInt(Note::getEndPosition).max().orElse(-1);
+
+        lastPosition = Math.max(lastPosition, getArrangementEnd());
+
+        return (lastPosition < 0 ? gridLength : lastPosition) * getGridSpaceDuration();
+    }
+
+    // End of the last placed pattern note, or -1 when no placed pattern has notes
+    private int getArrangementEnd() {
+        int end = -1;
+
+        for (PatternPlacement placement : arrangement) {
+            Pattern pattern = patterns.get(placement.getPattern());
+
+            if (pattern != null) {
+                for (Note note : pattern.getNotes()) {
+                    end = Math.max(end, placement.getPosition() + note.getEndPosition());
+                }
+            }
+        }
 
-        return lastPosition * getGridSpaceDuration();
+        return end;
     }
 
     @Override
     public String toString() {
         return "MusicGraph{" +
                "notes=" + notes.size() +
+               ", patterns=" + patterns.size() +
+               ", placements=" + arrangement.size() +
                ", tempo=" + tempo +
                ", maxOctaves=" + maxOctaves +
                ", totalRows=" + getTotalRows() +
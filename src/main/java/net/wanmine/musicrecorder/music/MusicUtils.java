@@ -1,31 +1,50 @@
 package net.wanmine.musicrecorder.music;
 
-import com.hypixel.hytale.assetstore.AssetLoadResult;
-import com.hypixel.hytale.assetstore.AssetUpdateQuery;
 import com.hypixel.hytale.server.core.asset.common.CommonAssetModule;
 import com.hypixel.hytale.server.core.asset.common.CommonAssetRegistry;
 import com.hypixel.hytale.server.core.asset.common.asset.FileCommonAsset;
-import com.hypixel.hytale.server.core.asset.type.soundevent.config.SoundEvent;
 import net.wanmine.musicrecorder.WansMusicRecorderPlugin;
-import ws.schild.jave.EncoderException;
+import net.wanmine.musicrecorder.utils.SingleFlight;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.Writer;
-import java.nio.file.Files;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.UUID;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 
 public class MusicUtils {
+    // Song file names are generated from a hash, so the file name never needs escaping
+    private static final String SOUND_EVENT_TEMPLATE = "{\"Parent\":\"SFX_Attn_Quiet\",\"StartAttenuationDistance\":10,\"MaxDistance\":60,\"Volume\":10,\"Pitch\":1.0,"
+            + "\"Layers\":[{\"Files\":[\"%s\"],\"Volume\":10}]}";
+
+    private static final SingleFlight<String, byte[]> RENDERS = new SingleFlight<>();
+
     // Private constructor to prevent instantiation
     private MusicUtils() {
         throw new UnsupportedOperationException("Utility class");
     }
 
-    public static String registerSong(MusicGraph musicGraph, String songName, boolean hasUUID) {
+    /**
+     * Registers the song under its {@link SongKey} and returns the SoundEvent id, or an empty string on failure.
+     * A song that was registered before, by any block, is reused without rendering it again.
+     */
+    public static String registerSong(MusicGraph musicGraph, String songName, RenderToken token) {
+        String songKey = prepareSong(musicGraph, songName, token);
+
+        if (songKey.isEmpty()) {
+            return "";
+        }
+
+        return registerSongEvent(songKey + ".json", WansMusicRecorderPlugin.getInstance().getSongsPath().resolve(songKey + ".ogg").toFile());
+    }
+
+    /**
+     * Renders the song into the song storage unless it is stored already and registers its audio, without a SoundEvent.
+     * Returns the song key, or an empty string on failure.
+     */
+    public static String prepareSong(MusicGraph musicGraph, String songName, RenderToken token) {
         if (songName.isEmpty()) {
             return "";
         }
@@ -44,29 +63,43 @@ public class MusicUtils {
             return "";
         }
 
-        String finalSongName = hasUUID ? songName + ".ogg" : songName.replace(" ", "_") + "_" + UUID.randomUUID() + ".ogg";
+        String songKey = SongKey.of(musicGraph, OggGenerator.SAMPLE_RATE);
+        String finalSongName = songKey + ".ogg";
         File songFile = WansMusicRecorderPlugin.getInstance().getSongsPath().resolve(finalSongName).toFile();
 
         String assetName = "Sounds/" + finalSongName;
 
-        if (!CommonAssetRegistry.hasCommonAsset(assetName)) {
+        SongStorage storage = WansMusicRecorderPlugin.getInstance().getSongStorage();
+
+        // A stored song is unregistered after a restart, so its audio is registered from the file on first use
+        if (!storage.isStored(songFile.toPath())) {
+            // Callers asking for the same song while it renders wait for that render instead of starting their own
             try {
-                OggGenerator.generateOgg(musicGraph, WansMusicRecorderPlugin.getInstance().getSongsPath(), finalSongName.replace(".ogg", ""));
-            } catch (IOException | EncoderException e) {
-                WansMusicRecorderPlugin.getInstance().getLogger().at(Level.WARNING).withCause(e).log("Failed to generate song: %s", songName);
+                RENDERS.run(songKey, () -> {
+                    SharedSongCache sharedSongs = WansMusicRecorderPlugin.getInstance().getSharedSongs();
+                    byte[] bytes = sharedSongs == null ? OggGenerator.generateOgg(musicGraph, songKey, token) : sharedSongs.get(songKey, () -> OggGenerator.generateOgg(musicGraph, songKey, token));
 
-                return "";
-            }
+                    // Registered straight from memory, the file is written in the background
+                    commonAssetModule.addCommonAsset(WansMusicRecorderPlugin.RUNTIME_PACK_NAME, new FileCommonAsset(songFile.toPath(), assetName, bytes));
+                    storage.store(songFile.toPath(), bytes);
+
+                    return bytes;
+                });
+            } catch (InterruptedIOException e) {
+                WansMusicRecorderPlugin.getInstance().getLogger().at(Level.INFO).log("Stopped rendering %s: %s", songName, e.getMessage());
 
-            if (!songFile.exists()) {
-                WansMusicRecorderPlugin.getInstance().getLogger().at(Level.WARNING).log("Song file does not exist; Cannot register song.");
+                return "";
+            } catch (IOException e) {
+                WansMusicRecorderPlugin.getInstance().getLogger().at(Level.WARNING).withCause(e).log("Failed to generate song: %s", songName);
 
                 return "";
             }
+        } else if (!CommonAssetRegistry.hasCommonAsset(assetName)) {
+            WansMusicRecorderPlugin.getInstance().getLogger().at(Level.INFO).log("Reusing rendered song %s for %s", songKey, songName);
 
             // Loading happens here
             try {
-                byte[] bytes = Files.readAllBytes(songFile.toPath());
+                byte[] bytes = storage.read(songFile.toPath());
 
                 commonAssetModule.addCommonAsset(WansMusicRecorderPlugin.RUNTIME_PACK_NAME, new FileCommonAsset(songFile.toPath(), assetName, bytes));
             } catch (IOException e) {
@@ -74,47 +107,30 @@ public class MusicUtils {
             }
         }
 
-        return registerSongEvent(finalSongName.replace(".ogg", ".json"), songFile);
+        return songKey;
     }
 
-    public static String registerSongEvent(String songName, File songFilePath) {
-        File songEventFile = WansMusicRecorderPlugin.getInstance().getSongsEventPath().resolve(songName).toFile();
-
-        if (songEventFile.exists()) {
-            return songName.replace(".json", "");
-        }
-
-        Map<String, Object> layer = new HashMap<>();
-        layer.put("Files", Collections.singletonList("Sounds/" + songFilePath.toPath().getFileName().toString()));
-        layer.put("Volume", 10);
-
-        Map<String, Object> soundEvent = new HashMap<>();
-        soundEvent.put("StartAttenuationDistance", 10);
-        soundEvent.put("MaxDistance", 60);
-        soundEvent.put("Volume", 10);
-        soundEvent.put("Parent", "SFX_Attn_Quiet");
-        soundEvent.put("Pitch", 1.0);
-        soundEvent.put("Layers", Collections.singletonList(layer));
-
-        try (Writer writer = Files.newBufferedWriter(songEventFile.toPath())) {
-            WansMusicRecorderPlugin.getInstance().getGson().toJson(soundEvent, writer);
-        } catch (IOException e) {
-            WansMusicRecorderPlugin.getInstance().getLogger().at(Level.SEVERE).withCause(e).log("Failed to write SoundEvent at %s", songEventFile);
-        }
+    public static String getRenderStats() {
+        return RENDERS.getStats();
+    }
 
-        // Loading happens here
+    public static String registerSongEvent(String songName, File songFilePath) {
+        // Loading happens here, batched with the songs registered around the same time
         try {
-            AssetLoadResult<String, SoundEvent> result = SoundEvent.getAssetStore().loadAssetsFromPaths(WansMusicRecorderPlugin.RUNTIME_PACK_NAME, Collections.singletonList(songEventFile.toPath()), AssetUpdateQuery.DEFAULT, true);
-
-            if (result.hasFailed()) {
-                WansMusicRecorderPlugin.getInstance().getLogger().at(Level.WARNING).log("Some SoundEvent assets failed to load for %s", songName);
-            } else {
-                return result.getLoadedAssets().values().iterator().next().getId();
-            }
-        } catch (Exception e) {
+            return registerSongEventAsync(songName, songFilePath).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
             WansMusicRecorderPlugin.getInstance().getLogger().at(Level.WARNING).withCause(e).log("Failed to load SoundEvent assets for %s", songName);
         }
 
         return "";
     }
+
+    public static CompletableFuture<String> registerSongEventAsync(String songName, File songFilePath) {
+        Path songEventFile = WansMusicRecorderPlugin.getInstance().getSongsEventPath().resolve(songName);
+        String soundEvent = SOUND_EVENT_TEMPLATE.formatted("Sounds/" + songFilePath.toPath().getFileName().toString());
+
+        return WansMusicRecorderPlugin.getInstance().getSoundEvents().register(songName.replace(".json", ""), songEventFile, soundEvent);
+    }
 }
@@ -17,6 +17,14 @@ public class Note {
         "C", "C#", "D", "D#", "E", "F", "F#", "G", "G#", "A", "A#", "B"
     };
 
+    private static final double[] PITCH_RATIOS = new double[128];
+
+    static {
+        for (int i = 0; i < PITCH_RATIOS.length; i++) {
+            PITCH_RATIOS[i] = Math.pow(2.0, (i - 69) / 12.0);
+        }
+    }
+
     public static final BuilderCodec<Note> CODEC = BuilderCodec.builder(
                     Note.class,
                     Note::new
@@ -91,7 +99,11 @@ public class Note {
     public double getFrequency() {
         int midiNoteNumber = (octave + 3) * 12 + semitone;
 
-        return this.instrument.getBaseFrequency() * Math.pow(2.0, (midiNoteNumber - 69) / 12.0);
+        if (midiNoteNumber < 0 || midiNoteNumber >= PITCH_RATIOS.length) {
+            return this.instrument.getBaseFrequency() * Math.pow(2.0, (midiNoteNumber - 69) / 12.0);
+        }
+
+        return this.instrument.getBaseFrequency() * PITCH_RATIOS[midiNoteNumber];
     }
 
 
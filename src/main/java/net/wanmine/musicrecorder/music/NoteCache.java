@@ -0,0 +1,47 @@
+package net.wanmine.musicrecorder.music;
+
+import net.wanmine.musicrecorder.utils.BudgetedLruCache;
+
+/**
+ * Least recently used cache of fully rendered notes. A note's samples only depend on its instrument, pitch, length and
+ * sample rate, so every repeat of a note in a song can be mixed straight from one buffer.
+ */
+public class NoteCache {
+    public static final NoteCache SHARED = new NoteCache(64L * 1024 * 1024);
+
+    // A single note may take at most this share of the budget, longer ones are rendered directly
+    private static final int MAX_ENTRY_SHARE = 16;
+
+    private final BudgetedLruCache<Key, float[]> cache;
+
+    public NoteCache(long budgetBytes) {
+        this.cache = new BudgetedLruCache<>(budgetBytes, MAX_ENTRY_SHARE, samples -> (long) samples.length * Float.BYTES);
+    }
+
+    public void setBudget(long budgetBytes) {
+        this.cache.setBudget(budgetBytes);
+    }
+
+    public boolean accepts(int length) {
+        return this.cache.accepts((long) length * Float.BYTES);
+    }
+
+    public float[] get(Note note, int length, int sampleRate) {
+        return this.cache.get(new Key(note.getInstrument(), note.getOctave(), note.getSemitone(), length, sampleRate));
+    }
+
+    public void put(Note note, int length, int sampleRate, float[] samples) {
+        this.cache.put(new Key(note.getInstrument(), note.getOctave(), note.getSemitone(), length, sampleRate), samples);
+    }
+
+    public void clear() {
+        this.cache.clear();
+    }
+
+    public String getStats() {
+        return this.cache.getStats();
+    }
+
+    private record Key(Instrument instrument, int octave, int semitone, int length, int sampleRate) {
+    }
+}
@@ -0,0 +1,62 @@
+package net.wanmine.musicrecorder.music;
+
+public class Oscillator {
+    private static final int TABLE_BITS = 11;
+    private static final int TABLE_SIZE = 1 << TABLE_BITS;
+    static final int FRACTION_BITS = 32 - TABLE_BITS;
+    static final int FRACTION_MASK = (1 << FRACTION_BITS) - 1;
+    static final float FRACTION_SCALE = 1.0f / (1 << FRACTION_BITS);
+    static final float NOISE_SCALE = 1.0f / (1 << 23);
+
+    // One extra guard entry per table so interpolation never has to wrap
+    private static final float[][] WAVETABLES = new float[Instrument.WaveformType.values().length][];
+
+    static {
+        for (Instrument.WaveformType type : Instrument.WaveformType.values()) {
+            if (type == Instrument.WaveformType.NOISE) {
+                continue;
+            }
+
+            float[] table = new float[TABLE_SIZE + 1];
+
+            for (int i = 0; i <= TABLE_SIZE; i++) {
+                double phase = (double) (i % TABLE_SIZE) / TABLE_SIZE;
+
+                table[i] = (float) switch (type) {
+                    case SINE -> Math.sin(2 * Math.PI * phase);
+                    case SQUARE -> phase < 0.5 ? 1.0 : -1.0;
+                    case TRIANGLE -> phase < 0.5 ? 4 * phase - 1 : -4 * phase + 3;
+                    case SAWTOOTH -> 2 * phase - 1;
+                    case NOISE -> 0.0;
+                };
+            }
+
+            WAVETABLES[type.ordinal()] = table;
+        }
+    }
+
+    private Oscillator() {
+        throw new UnsupportedOperationException("Utility class");
+    }
+
+    /**
+     * Converts a frequency into a 32-bit fixed point phase step, where 2^32 is one full cycle.
+     */
+    public static int phaseIncrement(double frequency, int sampleRate) {
+        return (int) Math.round(frequency / sampleRate * 4294967296.0);
+    }
+
+    /**
+     * Writes {@code count} samples of the waveform into {@code out}, starting {@code offset} samples after the note start.
+     * The phase is derived from the offset, so rendering a note in pieces gives the same samples as rendering it whole.
+     */
+    public static void fill(Instrument.WaveformType type, int phaseIncrement, int seed, int offset, float[] out, int outOffset, int count) {
+        if (type == Instrument.WaveformType.NOISE) {
+            SynthKernels.INSTANCE.noise(seed, offset, out, outOffset, count);
+
+            return;
+        }
+
+        SynthKernels.INSTANCE.wavetable(WAVETABLES[type.ordinal()], offset * phaseIncrement, phaseIncrement, out, outOffset, count);
+    }
+}
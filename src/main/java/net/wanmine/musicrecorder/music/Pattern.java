@@ -0,0 +1,95 @@
+package net.wanmine.musicrecorder.music;
+
+import com.hypixel.hytale.codec.Codec;
+import com.hypixel.hytale.codec.KeyedCodec;
+import com.hypixel.hytale.codec.builder.BuilderCodec;
+import com.hypixel.hytale.codec.codecs.array.ArrayCodec;
+
+import java.util.*;
+
+/**
+ * A named block of notes, such as a bar, that the arrangement of a {@link MusicGraph} places at any number of
+ * positions. Note positions are relative to the start of the pattern.
+ */
+public class Pattern {
+    private final List<Note> notes;
+    private String name;
+    private int length;
+
+    public static final BuilderCodec<Pattern> CODEC = BuilderCodec.builder(
+                    Pattern.class,
+                    Pattern::new
+            )
+            .append(new KeyedCodec<>("Name", Codec.STRING), (pattern, value) -> pattern.name = value, pattern -> pattern.name)
+            .add()
+            .append(new KeyedCodec<>("Length", Codec.INTEGER), (pattern, value) -> pattern.length = value, pattern -> pattern.length)
+            .add()
+            .append(new KeyedCodec<>("Notes", new ArrayCodec<>(Note.CODEC, Note[]::new)), (pattern, value) -> {
+                pattern.notes.clear();
+
+                Collections.addAll(pattern.notes, value);
+            }, pattern -> pattern.notes.toArray(new Note[0]))
+            .add()
+            .build();
+
+    public Pattern() {
+        this("", 16);
+    }
+
+    public Pattern(String name, int length) {
+        if (length < 1) {
+            throw new IllegalArgumentException("Pattern length must be at least 1");
+        }
+
+        this.notes = new ArrayList<>();
+        this.name = Objects.requireNonNull(name, "Name cannot be null");
+        this.length = length;
+    }
+
+    public Pattern(Pattern other) {
+        this.notes = new ArrayList<>(other.notes);
+        this.name = other.name;
+        this.length = other.length;
+    }
+
+    public boolean addNote(Note note) {
+        if (note.getPosition() < 0 || note.getEndPosition() > length) {
+            return false;
+        }
+
+        for (Note existing : notes) {
+            if (existing.overlaps(note)) {
+                return false;
+            }
+        }
+
+        notes.add(note);
+
+        return true;
+    }
+
+    public boolean removeNote(Note note) {
+        return notes.remove(note);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public List<Note> getNotes() {
+        return Collections.unmodifiableList(notes);
+    }
+
+    @Override
+    public String toString() {
+        return "Pattern{" +
+               "name=" + name +
+               ", notes=" + notes.size() +
+               ", length=" + length +
+               '}';
+    }
+}
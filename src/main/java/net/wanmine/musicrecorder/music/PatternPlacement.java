@@ -0,0 +1,60 @@
+package net.wanmine.musicrecorder.music;
+
+import com.hypixel.hytale.codec.Codec;
+import com.hypixel.hytale.codec.KeyedCodec;
+import com.hypixel.hytale.codec.builder.BuilderCodec;
+
+import java.util.Objects;
+
+public class PatternPlacement {
+    private String pattern;
+    private int position;
+
+    public static final BuilderCodec<PatternPlacement> CODEC = BuilderCodec.builder(
+                    PatternPlacement.class,
+                    PatternPlacement::new
+            )
+            .append(new KeyedCodec<>("Pattern", Codec.STRING), (placement, value) -> placement.pattern = value, placement -> placement.pattern)
+            .add()
+            .append(new KeyedCodec<>("Position", Codec.INTEGER), (placement, value) -> placement.position = value, placement -> placement.position)
+            .add()
+            .build();
+
+    public PatternPlacement() {
+        this("", 0);
+    }
+
+    public PatternPlacement(String pattern, int position) {
+        this.pattern = Objects.requireNonNull(pattern, "Pattern cannot be null");
+        this.position = position;
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        PatternPlacement placement = (PatternPlacement) o;
+        return position == placement.position && pattern.equals(placement.pattern);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(pattern, position);
+    }
+
+    @Override
+    public String toString() {
+        return "PatternPlacement{" +
+               "pattern=" + pattern +
+               ", position=" + position +
+               '}';
+    }
+}
@@ -0,0 +1,180 @@
+package net.wanmine.musicrecorder.music;
+
+import java.util.*;
+
+/**
+ * One placement of a pattern, limited to a single instrument so it fits into that instrument's stem. Placements of a
+ * pattern share equal {@link Part}s, which are synthesized once and then copied to each position. Note offsets are
+ * rounded to samples like the same notes placed one by one, so a grid step that is not a whole number of samples can
+ * give a pattern a second part for the placements it falls on differently.
+ */
+public class PatternVoice implements SoundSource {
+    private final Part part;
+    private final int startSample;
+
+    public PatternVoice(Part part, int startSample) {
+        this.part = part;
+        this.startSample = startSample;
+    }
+
+    /**
+     * Splits a pattern placed at the grid position into one part per instrument, in instrument order. The parts start
+     * at {@link #getStartSample(int, double, int)} of the position.
+     */
+    public static List<Part> split(Pattern pattern, int position, double gridSpaceDuration, int sampleRate, NoteCache noteCache, StemCache stemCache) {
+        Map<Instrument, List<Voice>> byInstrument = new EnumMap<>(Instrument.class);
+        int origin = getStartSample(position, gridSpaceDuration, sampleRate);
+
+        for (Note note : pattern.getNotes()) {
+            Note placed = new Note(note.getOctave(), note.getSemitone(), position + note.getPosition(), note.getLength(), note.getInstrument());
+
+            byInstrument.computeIfAbsent(note.getInstrument(), instrument -> new ArrayList<>()).add(new Voice(placed, gridSpaceDuration, sampleRate, noteCache));
+        }
+
+        List<Part> parts = new ArrayList<>(byInstrument.size());
+
+        for (Map.Entry<Instrument, List<Voice>> entry : byInstrument.entrySet()) {
+            parts.add(new Part(entry.getKey(), entry.getValue(), origin, sampleRate, stemCache));
+        }
+
+        return parts;
+    }
+
+    // Rounded the way a Voice rounds the start of a note at the same position
+    public static int getStartSample(int position, double gridSpaceDuration, int sampleRate) {
+        return (int) (position * gridSpaceDuration * sampleRate);
+    }
+
+    @Override
+    public Instrument getInstrument() {
+        return this.part.instrument;
+    }
+
+    @Override
+    public int getStartSample() {
+        return this.startSample;
+    }
+
+    @Override
+    public int getLength() {
+        return this.part.length;
+    }
+
+    @Override
+    public void mixInto(int offset, float[] mix, int mixOffset, int count, float[] scratch) {
+        SynthKernels.INSTANCE.accumulate(this.part.samples(), offset, mix, mixOffset, count);
+    }
+
+    @Override
+    public int getDescriptionSize() {
+        return 4 + this.part.notes.length;
+    }
+
+    // A leading -1 keeps a whole pattern apart from a single note, whose description starts with an instrument ordinal
+    @Override
+    public int describe(int origin, int[] description, int size) {
+        description[size++] = -1;
+        description[size++] = this.part.notes.length;
+        description[size++] = this.startSample - origin;
+        description[size++] = this.part.length;
+
+        System.arraycopy(this.part.notes, 0, description, size, this.part.notes.length);
+
+        return size + this.part.notes.length;
+    }
+
+    /**
+     * Parts with equal notes render equal samples, wherever they were placed.
+     */
+    public static class Part {
+        private final Instrument instrument;
+        private final List<Voice> voices;
+        private final int origin;
+        private final int sampleRate;
+        private final StemCache cache;
+        private final int length;
+        private final int[] notes;
+
+        private volatile float[] samples;
+
+        private Part(Instrument instrument, List<Voice> voices, int origin, int sampleRate, StemCache cache) {
+            this.instrument = instrument;
+            this.voices = voices;
+            this.origin = origin;
+            this.sampleRate = sampleRate;
+            this.cache = cache;
+
+            this.voices.sort(Comparator.comparingInt(Voice::getStartSample));
+
+            int end = 0;
+            int[] description = new int[voices.size() * 5];
+            int size = 0;
+
+            for (Voice voice : voices) {
+                end = Math.max(end, voice.getEndSample() - origin);
+                size = voice.describe(origin, description, size);
+            }
+
+            this.length = end;
+            this.notes = description;
+        }
+
+        // Keyed like a stem chunk starting with the pattern, the samples are the same
+        private float[] samples() {
+            float[] result = this.samples;
+
+            if (result != null) {
+                return result;
+            }
+
+            synchronized (this) {
+                if (this.samples == null) {
+                    int[] key = new int[2 + this.notes.length];
+
+                    key[0] = this.sampleRate;
+                    key[1] = this.length;
+
+                    System.arraycopy(this.notes, 0, key, 2, this.notes.length);
+
+                    result = this.cache == null ? null : this.cache.get(key);
+
+                    if (result == null) {
+                        result = this.render();
+
+                        if (this.cache != null) {
+                            this.cache.put(key, result);
+                        }
+                    }
+
+                    this.samples = result;
+                }
+
+                return this.samples;
+            }
+        }
+
+        private float[] render() {
+            float[] result = new float[this.length];
+            float[] scratch = new float[this.voices.stream().mapToInt(Voice::getLength).max().orElse(0)];
+
+            for (Voice voice : this.voices) {
+                voice.mixInto(0, result, voice.getStartSample() - this.origin, voice.getLength(), scratch);
+            }
+
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Part part = (Part) o;
+            return sampleRate == part.sampleRate && Arrays.equals(notes, part.notes);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * sampleRate + Arrays.hashCode(notes);
+        }
+    }
+}
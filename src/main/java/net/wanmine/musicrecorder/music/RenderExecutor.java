@@ -0,0 +1,123 @@
+package net.wanmine.musicrecorder.music;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A fixed number of render slots, so a burst of renders never holds up the server scheduler. Queued renders run by
+ * {@link RenderPriority} and in submission order within one. Once the queue is full new renders are rejected,
+ * prewarming already at half of it so it never crowds out players.
+ * <p>
+ * The slots are virtual threads. A render mostly waits, on synthesis, on ffmpeg, on the shared cache lock or on its
+ * SoundEvent load, and none of that holds a platform thread. Synthesis and encoding run on a separate fixed size
+ * {@link ForkJoinPool} below normal priority, so all renders together never use more cores than it has and the
+ * common pool stays free for the server.
+ */
+public class RenderExecutor {
+    private final ThreadPoolExecutor pool;
+    private final ForkJoinPool synthesisPool;
+    private final int queueLimit;
+    private final long timeoutSeconds;
+    private final AtomicLong sequence;
+
+    public RenderExecutor(int threads, int synthesisThreads, int queueLimit, long timeoutSeconds) {
+        ThreadFactory factory = Thread.ofVirtual().name("WansMusicRecorder-Render-", 0).factory();
+        ForkJoinPool.ForkJoinWorkerThreadFactory synthesisFactory = forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+
+            thread.setName("WansMusicRecorder-Synthesis-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+
+            return thread;
+        };
+
+        this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(), factory);
+        this.synthesisPool = new ForkJoinPool(synthesisThreads, synthesisFactory, null, false);
+        this.queueLimit = queueLimit;
+        this.timeoutSeconds = timeoutSeconds;
+        this.sequence = new AtomicLong();
+    }
+
+    /**
+     * Queues the render. The future fails with a {@link RejectedExecutionException} when the queue is full for its priority,
+     * and with a {@link CancellationException} when the token is cancelled before the render starts.
+     */
+    public <T> CompletableFuture<T> submit(RenderPriority priority, RenderToken token, Supplier<T> render) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+
+        // However the render ends, its deadline timer goes with it
+        result.whenComplete((value, e) -> token.complete());
+
+        int limit = priority == RenderPriority.PREWARM ? this.queueLimit / 2 : this.queueLimit;
+
+        // Checked and queued together, so concurrent submits cannot push the queue past its limit
+        synchronized (this) {
+            if (this.pool.getQueue().size() >= limit) {
+                result.completeExceptionally(new RejectedExecutionException("Render queue is full (" + this.pool.getQueue().size() + " queued), rejecting " + priority.name().toLowerCase() + " render"));
+
+                return result;
+            }
+
+            try {
+                this.pool.execute(new RenderTask<>(priority, this.sequence.getAndIncrement(), token, render, result));
+            } catch (RejectedExecutionException e) {
+                result.completeExceptionally(e);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * A token whose deadline is the configured render timeout from now.
+     */
+    public RenderToken newToken() {
+        return new RenderToken(this.timeoutSeconds);
+    }
+
+    public ForkJoinPool getSynthesisPool() {
+        return this.synthesisPool;
+    }
+
+    public int getQueued() {
+        return this.pool.getQueue().size();
+    }
+
+    // Renders still queued never run, their callers hear so instead of waiting forever
+    public void shutdown() {
+        for (Runnable task : this.pool.shutdownNow()) {
+            if (task instanceof RenderTask<?> renderTask) {
+                renderTask.result.completeExceptionally(new CancellationException("Render pool shut down"));
+            }
+        }
+
+        this.synthesisPool.shutdownNow();
+    }
+
+    private record RenderTask<T>(RenderPriority priority, long sequence, RenderToken token, Supplier<T> render, CompletableFuture<T> result) implements Runnable, Comparable<RenderTask<?>> {
+        @Override
+        public void run() {
+            if (this.result.isDone()) {
+                return;
+            }
+
+            try {
+                // Cancelled while queued, for example a jukebox broken before its turn
+                this.token.check();
+
+                this.result.complete(this.render.get());
+            } catch (Throwable e) {
+                this.result.completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public int compareTo(RenderTask<?> other) {
+            int order = this.priority.compareTo(other.priority);
+
+            return order != 0 ? order : Long.compare(this.sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package net.wanmine.musicrecorder.music;
+
+/**
+ * Order in which queued renders run, a player waiting on a preview goes before a jukebox, which goes before warming up.
+ */
+public enum RenderPriority {
+    PREVIEW,
+    JUKEBOX,
+    PREWARM
+}
@@ -0,0 +1,134 @@
+package net.wanmine.musicrecorder.music;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets whoever asked for a render call it off, and ends renders that run past their deadline. Renders check it between
+ * blocks and stop with a {@link CancellationException}, backends holding a process register it to be killed.
+ */
+public class RenderToken {
+    // Cancels tokens at their deadline, so a render blocked where it never checks the token, such as on a wedged
+    // ffmpeg pipe, still gets its listeners run
+    private static final ScheduledThreadPoolExecutor DEADLINES = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "WansMusicRecorder-RenderDeadlines");
+
+        thread.setDaemon(true);
+
+        return thread;
+    });
+
+    static {
+        DEADLINES.setRemoveOnCancelPolicy(true);
+    }
+
+    private final long deadline;
+    private final List<Runnable> listeners;
+    private final ScheduledFuture<?> deadlineTimer;
+    private volatile String cancelled;
+    private volatile boolean completed;
+
+    /**
+     * @param timeoutSeconds how long the render may take from now, 0 for no deadline
+     */
+    public RenderToken(long timeoutSeconds) {
+        this.deadline = timeoutSeconds > 0 ? System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds) : Long.MAX_VALUE;
+        this.listeners = new ArrayList<>();
+        this.deadlineTimer = timeoutSeconds > 0 ? DEADLINES.schedule(this::expire, timeoutSeconds, TimeUnit.SECONDS) : null;
+    }
+
+    public void cancel(String reason) {
+        List<Runnable> toRun;
+
+        synchronized (this) {
+            if (this.cancelled != null) {
+                return;
+            }
+
+            this.cancelled = reason;
+
+            toRun = new ArrayList<>(this.listeners);
+
+            this.listeners.clear();
+        }
+
+        if (this.deadlineTimer != null) {
+            this.deadlineTimer.cancel(false);
+        }
+
+        for (Runnable listener : toRun) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Marks the render as finished. Its deadline no longer applies and the timer holding the token is dropped, while
+     * an explicit {@link #cancel(String)} still counts.
+     */
+    public void complete() {
+        synchronized (this) {
+            this.completed = true;
+
+            this.listeners.clear();
+        }
+
+        if (this.deadlineTimer != null) {
+            this.deadlineTimer.cancel(false);
+        }
+    }
+
+    private void expire() {
+        if (!this.completed) {
+            this.cancel("deadline exceeded");
+        }
+    }
+
+    public boolean isCancelled() {
+        if (this.cancelled == null && !this.completed && System.nanoTime() - this.deadline > 0) {
+            this.cancel("deadline exceeded");
+        }
+
+        return this.cancelled != null;
+    }
+
+    /**
+     * Why the render was cancelled, or null while it was not.
+     */
+    public String getReason() {
+        return cancelled;
+    }
+
+    /**
+     * Throws once the render was cancelled or ran past its deadline.
+     */
+    public void check() {
+        if (this.isCancelled()) {
+            throw new CancellationException("Render cancelled: " + this.cancelled);
+        }
+    }
+
+    /**
+     * Runs the listener on cancellation, right away if already cancelled. Returns a handle removing it again.
+     */
+    public Runnable onCancel(Runnable listener) {
+        synchronized (this) {
+            if (this.cancelled == null) {
+                this.listeners.add(listener);
+
+                return () -> {
+                    synchronized (this) {
+                        this.listeners.remove(listener);
+                    }
+                };
+            }
+        }
+
+        listener.run();
+
+        return () -> { };
+    }
+}
@@ -0,0 +1,57 @@
+package net.wanmine.musicrecorder.music;
+
+public class ScalarSynthKernels implements SynthKernels {
+    @Override
+    public void wavetable(float[] table, int phase, int phaseIncrement, float[] out, int outOffset, int count) {
+        for (int j = 0; j < count; j++) {
+            int index = phase >>> Oscillator.FRACTION_BITS;
+            float fraction = (phase & Oscillator.FRACTION_MASK) * Oscillator.FRACTION_SCALE;
+            float a = table[index];
+
+            out[outOffset + j] = a + (table[index + 1] - a) * fraction;
+
+            phase += phaseIncrement;
+        }
+    }
+
+    @Override
+    public void noise(int seed, int index, float[] out, int outOffset, int count) {
+        for (int j = 0; j < count; j++) {
+            int h = seed ^ ((index + j) * 0x9E3779B9);
+
+            h ^= h >>> 16;
+            h *= 0x85EBCA6B;
+            h ^= h >>> 13;
+            h *= 0xC2B2AE35;
+            h ^= h >>> 16;
+
+            out[outOffset + j] = (h >> 8) * Oscillator.NOISE_SCALE;
+        }
+    }
+
+    @Override
+    public void ramp(double base, double slope, int start, float[] out, int outOffset, int count) {
+        for (int j = 0; j < count; j++) {
+            out[outOffset + j] *= (float) (base + slope * (start + j));
+        }
+    }
+
+    @Override
+    public void accumulate(float[] source, int sourceOffset, float[] target, int targetOffset, int count) {
+        for (int j = 0; j < count; j++) {
+            target[targetOffset + j] += source[sourceOffset + j];
+        }
+    }
+
+    @Override
+    public void quantize(float[] source, int sourceOffset, float scale, short[] target, int targetOffset, int count) {
+        for (int j = 0; j < count; j++) {
+            target[targetOffset + j] = (short) Math.clamp((int) (source[sourceOffset + j] * scale), Short.MIN_VALUE, Short.MAX_VALUE);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "scalar";
+    }
+}
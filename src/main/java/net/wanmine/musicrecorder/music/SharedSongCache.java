@@ -0,0 +1,132 @@
+package net.wanmine.musicrecorder.music;
+
+import net.wanmine.musicrecorder.WansMusicRecorderPlugin;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.UUID;
+import java.util.logging.Level;
+
+/**
+ * A directory of rendered songs shared by every server process on the host, keyed by {@link SongKey}. A process
+ * about to render a missing song takes a file lock on it first, so the others wait and reuse its result instead of
+ * rendering the same song again. Songs are published with an atomic rename, a song file that exists is always complete.
+ */
+public class SharedSongCache {
+    private static final int LOCK_STRIPES = 64;
+
+    private final Path directory;
+    private final Path lockDirectory;
+
+    // File locks belong to the whole process, threads rendering the same song are kept apart here
+    private final Object[] stripes;
+
+    public SharedSongCache(Path directory) throws IOException {
+        this.directory = directory;
+        this.lockDirectory = directory.resolve("locks");
+        this.stripes = new Object[LOCK_STRIPES];
+
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            this.stripes[i] = new Object();
+        }
+
+        Files.createDirectories(this.lockDirectory);
+    }
+
+    /**
+     * Returns the song from the shared directory, rendering and publishing it first when no process has done so yet.
+     * Falls back to rendering locally when the directory cannot be used.
+     */
+    public byte[] get(String songKey, Render render) throws IOException {
+        Path file = this.directory.resolve(songKey + ".ogg");
+        byte[] cached = read(file);
+
+        if (cached != null) {
+            return cached;
+        }
+
+        synchronized (this.stripes[Math.floorMod(songKey.hashCode(), LOCK_STRIPES)]) {
+            FileChannel channel;
+
+            try {
+                channel = FileChannel.open(this.lockDirectory.resolve(songKey + ".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+
+                try {
+                    channel.lock();
+                } catch (IOException | RuntimeException e) {
+                    channel.close();
+
+                    throw e;
+                }
+            } catch (IOException | RuntimeException e) {
+                WansMusicRecorderPlugin.getInstance().getLogger().at(Level.WARNING).withCause(e).log("Failed to lock song %s in the shared cache, rendering it locally", songKey);
+
+                return render.render();
+            }
+
+            // Closing the channel releases the lock
+            try (channel) {
+                // Another process may have published it while this one waited for the lock
+                cached = read(file);
+
+                if (cached != null) {
+                    WansMusicRecorderPlugin.getInstance().getLogger().at(Level.INFO).log("Reusing song %s rendered by another server", songKey);
+
+                    return cached;
+                }
+
+                byte[] bytes = render.render();
+
+                try {
+                    publish(file, bytes);
+                } catch (IOException e) {
+                    WansMusicRecorderPlugin.getInstance().getLogger().at(Level.WARNING).withCause(e).log("Failed to publish song %s to the shared cache", songKey);
+                }
+
+                return bytes;
+            }
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    // Hits bump the modification time, so operators can clean the directory up by last use
+    private static byte[] read(Path file) {
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+
+            return bytes.length == 0 ? null : bytes;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            WansMusicRecorderPlugin.getInstance().getLogger().at(Level.FINE).withCause(e).log("Failed to read shared song %s", file);
+
+            return null;
+        }
+    }
+
+    private static void publish(Path file, byte[] bytes) throws IOException {
+        Path temporaryFile = file.resolveSibling(file.getFileName() + "." + UUID.randomUUID() + ".tmp");
+
+        try {
+            Files.write(temporaryFile, bytes);
+            Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    public interface Render {
+        byte[] render() throws IOException;
+    }
+}
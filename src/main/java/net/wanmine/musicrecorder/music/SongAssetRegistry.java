@@ -0,0 +1,216 @@
+package net.wanmine.musicrecorder.music;
+
+import com.hypixel.hytale.server.core.asset.common.CommonAssetRegistry;
+import net.wanmine.musicrecorder.WansMusicRecorderPlugin;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Counts the jukeboxes and previews holding each registered song. A song is unregistered only once the last holder
+ * released it and the grace period passed without anyone acquiring it again. Its {@code .ogg} stays on disk and in
+ * the common assets for reuse until {@link SongStorage} evicts it. Without persistence there is no file to fall back
+ * to, so the audio is unregistered together with the SoundEvent.
+ */
+public class SongAssetRegistry {
+    private final ScheduledExecutorService scheduler;
+    private final Executor io;
+    private final long graceSeconds;
+    private final Map<String, Holders> songs;
+
+    public SongAssetRegistry(ScheduledExecutorService scheduler, Executor io, long graceSeconds) {
+        this.scheduler = scheduler;
+        this.io = io;
+        this.graceSeconds = graceSeconds;
+        this.songs = new HashMap<>();
+    }
+
+    /**
+     * Registers the song if needed and takes a reference on it. Returns the SoundEvent id, or an empty string when
+     * the song could not be registered, in which case no reference is held.
+     */
+    public String acquire(MusicGraph musicGraph, String songName, RenderToken token) {
+        if (songName.isEmpty() || musicGraph == null) {
+            return "";
+        }
+
+        String songKey = SongKey.of(musicGraph, OggGenerator.SAMPLE_RATE);
+
+        // Taking the reference first keeps a pending removal from deleting the files while they are registered again
+        this.hold(songKey);
+
+        String eventId = MusicUtils.registerSong(musicGraph, songName, token);
+
+        if (eventId.isEmpty()) {
+            this.release(songKey, false);
+        } else {
+            SongStorage.touch(WansMusicRecorderPlugin.getInstance().getSongsPath().resolve(songKey + ".ogg"));
+        }
+
+        return eventId;
+    }
+
+    /**
+     * Takes a reference on a song that is rendered and registered already, such as the one a recorded disk names,
+     * without needing its graph. Returns the SoundEvent id, or an empty string when the song has to go through
+     * {@link #acquire(MusicGraph, String, RenderToken)}, in which case no reference is held.
+     */
+    public String acquireRendered(String songKey) {
+        Path songFile = WansMusicRecorderPlugin.getInstance().getSongsPath().resolve(songKey + ".ogg");
+        Path eventFile = WansMusicRecorderPlugin.getInstance().getSongsEventPath().resolve(songKey + ".json");
+
+        synchronized (this) {
+            if (!CommonAssetRegistry.hasCommonAsset("Sounds/" + songKey + ".ogg") || !WansMusicRecorderPlugin.getInstance().getSongStorage().isStored(songFile) || !Files.exists(eventFile)) {
+                return "";
+            }
+
+            this.hold(songKey);
+        }
+
+        // Loaded already unless a load or removal of it is queued, which is left to the regular path
+        String eventId = MusicUtils.registerSongEventAsync(songKey + ".json", songFile.toFile()).getNow("");
+
+        if (eventId.isEmpty()) {
+            this.release(songKey, false);
+        } else {
+            SongStorage.touch(songFile);
+        }
+
+        return eventId;
+    }
+
+    public void release(String songKey) {
+        this.release(songKey, true);
+    }
+
+    /**
+     * Keeps a song nobody holds registered for the given time, such as one rendered ahead of its first player. It is
+     * unregistered afterwards like a released song, unless someone acquired it meanwhile.
+     */
+    public synchronized void retain(String songKey, long seconds) {
+        Holders holders = this.songs.computeIfAbsent(songKey, key -> new Holders());
+
+        if (holders.count > 0 || holders.removal != null) {
+            return;
+        }
+
+        if (seconds > 0) {
+            holders.removal = this.scheduleRemoval(songKey, seconds);
+        } else {
+            this.remove(songKey);
+        }
+    }
+
+    public synchronized int getHolders(String songKey) {
+        Holders holders = this.songs.get(songKey);
+
+        return holders == null ? 0 : holders.count;
+    }
+
+    /**
+     * Unregisters a song nobody holds or is about to release, deleting its SoundEvent and optionally its {@code .ogg}
+     * together with its audio, which goes in any case without persistence. Returns false when the song is in use.
+     */
+    public synchronized boolean evict(String songKey, boolean deleteSong) {
+        if (this.songs.containsKey(songKey)) {
+            return false;
+        }
+
+        this.unregister(songKey);
+
+        if (deleteSong || !WansMusicRecorderPlugin.getInstance().getConfig().isPersistSongs()) {
+            unregisterAudio(songKey);
+        }
+
+        if (deleteSong) {
+            WansMusicRecorderPlugin.getInstance().getSongsPath().resolve(songKey + ".ogg").toFile().delete();
+        }
+
+        return true;
+    }
+
+    /**
+     * Cancels the removals still waiting out their grace period, so none is handed to the IO executor after it closed.
+     */
+    public synchronized void cancelPendingRemovals() {
+        for (Holders holders : this.songs.values()) {
+            if (holders.removal != null) {
+                holders.removal.cancel(false);
+                holders.removal = null;
+            }
+        }
+    }
+
+    private synchronized void hold(String songKey) {
+        Holders holders = this.songs.computeIfAbsent(songKey, key -> new Holders());
+
+        holders.count++;
+
+        if (holders.removal != null) {
+            holders.removal.cancel(false);
+            holders.removal = null;
+        }
+    }
+
+    private synchronized void release(String songKey, boolean grace) {
+        Holders holders = this.songs.get(songKey);
+
+        if (holders == null || holders.count == 0) {
+            WansMusicRecorderPlugin.getInstance().getLogger().at(Level.WARNING).log("Released song %s that is not held", songKey);
+
+            return;
+        }
+
+        if (--holders.count > 0) {
+            return;
+        }
+
+        if (grace && this.graceSeconds > 0) {
+            holders.removal = this.scheduleRemoval(songKey, this.graceSeconds);
+        } else {
+            this.remove(songKey);
+        }
+    }
+
+    private ScheduledFuture<?> scheduleRemoval(String songKey, long seconds) {
+        // The scheduler only fires the timer, removing deletes files
+        return this.scheduler.schedule(() -> this.io.execute(() -> this.remove(songKey)), seconds, TimeUnit.SECONDS);
+    }
+
+    private synchronized void remove(String songKey) {
+        Holders holders = this.songs.get(songKey);
+
+        if (holders == null || holders.count > 0) {
+            return;
+        }
+
+        this.songs.remove(songKey);
+        this.unregister(songKey);
+
+        if (!WansMusicRecorderPlugin.getInstance().getConfig().isPersistSongs()) {
+            unregisterAudio(songKey);
+        }
+    }
+
+    private void unregister(String songKey) {
+        WansMusicRecorderPlugin.getInstance().getSoundEvents().remove(songKey);
+        WansMusicRecorderPlugin.getInstance().getSongsEventPath().resolve(songKey + ".json").toFile().delete();
+    }
+
+    // The common asset holds the whole encoded song in memory
+    private static void unregisterAudio(String songKey) {
+        CommonAssetRegistry.removeCommonAssetByName(WansMusicRecorderPlugin.RUNTIME_PACK_NAME, "Sounds/" + songKey + ".ogg");
+    }
+
+    private static class Holders {
+        private int count;
+        private ScheduledFuture<?> removal;
+    }
+}
@@ -0,0 +1,115 @@
+package net.wanmine.musicrecorder.music;
+
+import net.wanmine.musicrecorder.WansMusicRecorderPlugin;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * What the runtime pack held when the server last saved it: per song the hash and size of its {@code .ogg}, when it
+ * was last used and how many jukeboxes held it. Lets startup drop damaged files and register the songs jukeboxes will
+ * ask for again without rendering them.
+ */
+public class SongIndex {
+    public static final String FILE_NAME = "song-index.json";
+
+    private Map<String, Entry> songs = new HashMap<>();
+
+    public synchronized Entry get(String songKey) {
+        return songs.get(songKey);
+    }
+
+    public synchronized void put(String songKey, Entry entry) {
+        songs.put(songKey, entry);
+    }
+
+    public synchronized void remove(String songKey) {
+        songs.remove(songKey);
+    }
+
+    public synchronized Map<String, Entry> getSongs() {
+        return Map.copyOf(songs);
+    }
+
+    public static SongIndex load(Path dataDirectory) {
+        WansMusicRecorderPlugin plugin = WansMusicRecorderPlugin.getInstance();
+        Path file = dataDirectory.resolve(FILE_NAME);
+
+        if (Files.exists(file)) {
+            try (Reader reader = Files.newBufferedReader(file)) {
+                SongIndex index = plugin.getGson().fromJson(reader, SongIndex.class);
+
+                if (index != null && index.songs != null) {
+                    return index;
+                }
+            } catch (IOException | RuntimeException e) {
+                plugin.getLogger().at(Level.WARNING).withCause(e).log("Failed to read %s, rebuilding it", file);
+            }
+        }
+
+        return new SongIndex();
+    }
+
+    public synchronized void save(Path dataDirectory) {
+        Path file = dataDirectory.resolve(FILE_NAME);
+        Path temporaryFile = dataDirectory.resolve(FILE_NAME + ".tmp");
+
+        try {
+            try (Writer writer = Files.newBufferedWriter(temporaryFile)) {
+                WansMusicRecorderPlugin.getInstance().getGson().toJson(this, writer);
+            }
+
+            Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            WansMusicRecorderPlugin.getInstance().getLogger().at(Level.WARNING).withCause(e).log("Failed to write %s", file);
+        }
+    }
+
+    public static String hash(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-1").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+
+    public static class Entry {
+        private String sha1;
+        private long size;
+        private long lastUsed;
+        private int references;
+
+        public Entry(String sha1, long size, long lastUsed, int references) {
+            this.sha1 = sha1;
+            this.size = size;
+            this.lastUsed = lastUsed;
+            this.references = references;
+        }
+
+        public String getSha1() {
+            return sha1;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastUsed() {
+            return lastUsed;
+        }
+
+        public int getReferences() {
+            return references;
+        }
+    }
+}
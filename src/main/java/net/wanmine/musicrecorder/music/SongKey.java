@@ -0,0 +1,101 @@
+package net.wanmine.musicrecorder.music;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Content address of a rendered song. Graphs that render the same audio get the same key, however their notes were
+ * entered, so identical songs share one {@code .ogg} and one SoundEvent. Placed patterns are mixed as a whole, which
+ * can round differently from the same notes entered one by one, so they are hashed as placed.
+ */
+public class SongKey {
+    // Bump whenever synthesis changes, so songs rendered by an older version are not reused
+    public static final int RENDER_VERSION = 1;
+
+    private static final Comparator<Note> CANONICAL_ORDER = Comparator.comparingInt(Note::getPosition)
+            .thenComparingInt(Note::getOctave)
+            .thenComparingInt(Note::getSemitone)
+            .thenComparing(Note::getInstrument)
+            .thenComparingInt(Note::getLength);
+
+    private static final java.util.regex.Pattern KEY_PATTERN = java.util.regex.Pattern.compile("Song_[0-9a-f]{32}");
+
+    private SongKey() {
+        throw new UnsupportedOperationException("Utility class");
+    }
+
+    public static boolean isKey(String name) {
+        return KEY_PATTERN.matcher(name).matches();
+    }
+
+    /**
+     * A hash of everything the rendered audio depends on: the render version, the sample rate, the tempo, the song
+     * length in samples, the loose notes of the song in a canonical order and the notes of every placed pattern.
+     */
+    public static String of(MusicGraph graph, int sampleRate) {
+        List<Note> notes = canonical(graph.getNotes());
+        List<PatternPlacement> placements = new ArrayList<>(graph.getArrangement());
+        List<List<Note>> placedNotes = new ArrayList<>(placements.size());
+        int size = 5 + notes.size() * 5;
+
+        placements.sort(Comparator.comparingInt(PatternPlacement::getPosition).thenComparing(PatternPlacement::getPattern));
+
+        for (PatternPlacement placement : placements) {
+            Pattern pattern = graph.getPattern(placement.getPattern());
+            List<Note> patternNotes = pattern == null ? List.of() : canonical(pattern.getNotes());
+
+            placedNotes.add(patternNotes);
+
+            size += 2 + patternNotes.size() * 5;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size * Integer.BYTES);
+
+        buffer.putInt(RENDER_VERSION);
+        buffer.putInt(sampleRate);
+        buffer.putInt(graph.getTempo());
+        buffer.putInt((int) (graph.getTotalDuration() * sampleRate));
+        buffer.putInt(notes.size());
+
+        putNotes(buffer, notes);
+
+        // Nothing is added without patterns, so songs keep the keys they had before patterns existed
+        for (int i = 0; i < placements.size(); i++) {
+            buffer.putInt(placements.get(i).getPosition());
+            buffer.putInt(placedNotes.get(i).size());
+
+            putNotes(buffer, placedNotes.get(i));
+        }
+
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(buffer.array());
+
+            return "Song_" + HexFormat.of().formatHex(hash, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static List<Note> canonical(List<Note> notes) {
+        List<Note> sorted = new ArrayList<>(notes);
+
+        sorted.sort(CANONICAL_ORDER);
+
+        return sorted;
+    }
+
+    private static void putNotes(ByteBuffer buffer, List<Note> notes) {
+        for (Note note : notes) {
+            buffer.putInt(note.getPosition());
+            buffer.putInt(note.getLength());
+            buffer.putInt(note.getOctave());
+            buffer.putInt(note.getSemitone());
+            buffer.putInt(note.getInstrument().ordinal());
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package net.wanmine.musicrecorder.music;
+
+import com.hypixel.hytale.codec.EmptyExtraInfo;
+import net.wanmine.musicrecorder.music.encoder.AudioEncoder;
+import net.wanmine.musicrecorder.music.encoder.SegmentCache;
+import net.wanmine.musicrecorder.music.encoder.VorbisAudioEncoder;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Renders saved songs into a song directory without a running server, so caches can be warmed ahead of time:
+ * <pre>java -cp &lt;plugin jar&gt;:&lt;server jar&gt; net.wanmine.musicrecorder.music.SongPreRenderer &lt;song directory&gt; &lt;graph files or directories&gt;...</pre>
+ * Graphs are JSON documents in the {@link MusicGraph#CODEC} format the game saves them in, disk metadata and block data
+ * holding the graph under {@code MusicGraph} work as they are. Songs are written as {@code <SongKey>.ogg} with the same
+ * bytes the plugin renders, so the target can be the {@code Common/Sounds} folder of the runtime pack or a shared song
+ * cache. Songs whose file already exists are skipped. Songs render in parallel and each one is encoded across all cores.
+ */
+public class SongPreRenderer {
+    private final AudioEncoder encoder;
+    private final Path songsPath;
+
+    public SongPreRenderer(AudioEncoder encoder, Path songsPath) {
+        this.encoder = encoder;
+        this.songsPath = songsPath;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: SongPreRenderer <song directory> <graph files or directories>...");
+            System.exit(2);
+
+            return;
+        }
+
+        Path songsPath = Path.of(args[0]);
+        List<Path> graphs = new ArrayList<>();
+
+        Files.createDirectories(songsPath);
+
+        for (int i = 1; i < args.length; i++) {
+            graphs.addAll(findGraphs(Path.of(args[i])));
+        }
+
+        int failed = new SongPreRenderer(new VorbisAudioEncoder(SegmentCache.SHARED), songsPath).renderAll(graphs);
+
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    /**
+     * Renders every graph missing from the song directory, printing the throughput of each song and a summary.
+     * Returns how many graphs failed.
+     */
+    public int renderAll(List<Path> graphs) {
+        AtomicInteger rendered = new AtomicInteger();
+        AtomicInteger skipped = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicLong audioSamples = new AtomicLong();
+        long start = System.nanoTime();
+
+        graphs.parallelStream().forEach(graph -> {
+            try {
+                Result result = this.render(graph);
+
+                if (result == null) {
+                    skipped.incrementAndGet();
+
+                    return;
+                }
+
+                rendered.incrementAndGet();
+                audioSamples.addAndGet(result.samples);
+
+                double seconds = (double) result.samples / OggGenerator.SAMPLE_RATE;
+                double took = result.nanos / 1e9;
+
+                System.out.printf(Locale.ROOT, "%s -> %s: %.1f s of audio in %.2f s, %.1fx realtime, %d KiB%n", graph.getFileName(), result.songKey, seconds, took, seconds / Math.max(took, 1e-9), result.bytes / 1024);
+            } catch (IOException | RuntimeException e) {
+                failed.incrementAndGet();
+
+                System.err.printf(Locale.ROOT, "%s failed: %s%n", graph.getFileName(), e);
+            }
+        });
+
+        double took = (System.nanoTime() - start) / 1e9;
+        double seconds = (double) audioSamples.get() / OggGenerator.SAMPLE_RATE;
+
+        System.out.printf(Locale.ROOT, "Rendered %d songs (%.1f s of audio) in %.2f s, %.2f songs/s, %.1fx realtime; %d already cached, %d failed%n", rendered.get(), seconds, took, rendered.get() / Math.max(took, 1e-9), seconds / Math.max(took, 1e-9), skipped.get(), failed.get());
+
+        return failed.get();
+    }
+
+    // Null when the song is already in the song directory
+    private Result render(Path graphFile) throws IOException {
+        MusicGraph graph = readGraph(graphFile);
+
+        if (graph == null) {
+            throw new IOException("Empty graph file");
+        }
+
+        String songKey = SongKey.of(graph, OggGenerator.SAMPLE_RATE);
+        Path file = this.songsPath.resolve(songKey + ".ogg");
+
+        if (Files.exists(file)) {
+            return null;
+        }
+
+        long start = System.nanoTime();
+        SongRenderer renderer = new SongRenderer(graph, OggGenerator.SAMPLE_RATE);
+
+        // Named like the plugin names it, so the stream serial and therefore the bytes match
+        byte[] bytes = this.encoder.encode(renderer, songKey + ".ogg");
+
+        SongStorage.write(file, bytes);
+
+        return new Result(songKey, renderer.getTotalSamples(), bytes.length, System.nanoTime() - start);
+    }
+
+    private static MusicGraph readGraph(Path graphFile) throws IOException {
+        try {
+            BsonDocument document = BsonDocument.parse(Files.readString(graphFile));
+            BsonValue graph = document.containsKey("MusicGraph") ? document.get("MusicGraph") : document;
+
+            return MusicGraph.CODEC.decode(graph, EmptyExtraInfo.EMPTY);
+        } catch (RuntimeException e) {
+            throw new IOException("Not a music graph: " + e.getMessage(), e);
+        }
+    }
+
+    private static List<Path> findGraphs(Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            return List.of(path);
+        }
+
+        try (Stream<Path> files = Files.walk(path)) {
+            return files.filter(file -> Files.isRegularFile(file) && file.getFileName().toString().endsWith(".json")).toList();
+        }
+    }
+
+    private record Result(String songKey, int samples, int bytes, long nanos) { }
+}
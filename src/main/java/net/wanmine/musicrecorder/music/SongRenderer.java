@@ -0,0 +1,359 @@
+package net.wanmine.musicrecorder.music;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class SongRenderer {
+    public static final int BLOCK_SIZE = 1024;
+
+    // Instrument stems are rendered and cached in chunks aligned to multiples of the chunk size
+    private static final int CHUNK_SIZE = BLOCK_SIZE * 16;
+    // Samples are rendered ahead in windows, the chunks of a window render in parallel
+    private static final int WINDOW_SIZE = CHUNK_SIZE * 16;
+
+    private static final Instrument[] INSTRUMENTS = Instrument.values();
+
+    private final List<SoundSource> voices;
+    private final List<List<SoundSource>> stems;
+    private final int[] longestVoice;
+    private final int sampleRate;
+    private final int totalSamples;
+
+    private final ForkJoinPool pool;
+    private final StemCache stemCache;
+    private final RenderToken token;
+    private final short[] window;
+    private int windowStart;
+    private int windowLength;
+
+    private int position;
+
+    public SongRenderer(MusicGraph graph, int sampleRate) {
+        this(graph, sampleRate, null);
+    }
+
+    public SongRenderer(MusicGraph graph, int sampleRate, RenderToken token) {
+        this(graph, sampleRate, ForkJoinPool.commonPool(), NoteCache.SHARED, StemCache.SHARED, token);
+    }
+
+    /**
+     * Every sample only depends on its own position, so chunks can render in any order and the output is identical
+     * to rendering serially. A null pool renders on the calling thread, null caches render everything directly.
+     * Each pattern of the arrangement is synthesized once and mixed in at every placement. The token is checked
+     * before every chunk, a null token never cancels.
+     */
+    public SongRenderer(MusicGraph graph, int sampleRate, ForkJoinPool pool, NoteCache noteCache, StemCache stemCache, RenderToken token) {
+        double gridSpaceDuration = graph.getGridSpaceDuration();
+
+        this.voices = new ArrayList<>(graph.getNotes().size());
+
+        for (Note note : graph.getNotes()) {
+            this.voices.add(new Voice(note, gridSpaceDuration, sampleRate, noteCache));
+        }
+
+        Map<PatternVoice.Part, PatternVoice.Part> parts = new HashMap<>();
+
+        for (PatternPlacement placement : graph.getArrangement()) {
+            Pattern pattern = graph.getPattern(placement.getPattern());
+
+            if (pattern == null) {
+                continue;
+            }
+
+            int start = PatternVoice.getStartSample(placement.getPosition(), gridSpaceDuration, sampleRate);
+
+            // Placements that round to the same sample offsets share the part synthesized first
+            for (PatternVoice.Part part : PatternVoice.split(pattern, placement.getPosition(), gridSpaceDuration, sampleRate, noteCache, stemCache)) {
+                this.voices.add(new PatternVoice(parts.computeIfAbsent(part, key -> key), start));
+            }
+        }
+
+        this.voices.sort(Comparator.comparingInt(SoundSource::getStartSample));
+
+        this.stems = new ArrayList<>(INSTRUMENTS.length);
+        this.longestVoice = new int[INSTRUMENTS.length];
+
+        for (Instrument instrument : INSTRUMENTS) {
+            this.stems.add(new ArrayList<>());
+        }
+
+        for (SoundSource voice : this.voices) {
+            int instrument = voice.getInstrument().ordinal();
+
+            this.stems.get(instrument).add(voice);
+            this.longestVoice[instrument] = Math.max(this.longestVoice[instrument], voice.getLength());
+        }
+
+        this.sampleRate = sampleRate;
+        this.totalSamples = (int) (graph.getTotalDuration() * sampleRate);
+        this.pool = pool;
+        this.stemCache = stemCache;
+        this.token = token;
+        this.window = new short[Math.min(WINDOW_SIZE, Math.max(this.totalSamples, 1))];
+        this.position = 0;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getTotalSamples() {
+        return totalSamples;
+    }
+
+    public RenderToken getToken() {
+        return token;
+    }
+
+    /**
+     * The pool synthesis runs on, encoders run their own parallel work there too. Null renders on the calling thread.
+     */
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public boolean isFinished() {
+        return position >= totalSamples;
+    }
+
+    /**
+     * Renders the next samples of the song into {@code out} and returns how many were written, or 0 once the song has ended.
+     */
+    public int render(short[] out) {
+        int written = 0;
+
+        while (written < out.length && this.position < this.totalSamples) {
+            if (this.position == this.windowStart + this.windowLength) {
+                this.fillWindow(this.position);
+            }
+
+            int count = Math.min(out.length - written, this.windowStart + this.windowLength - this.position);
+
+            System.arraycopy(this.window, this.position - this.windowStart, out, written, count);
+
+            this.position += count;
+            written += count;
+        }
+
+        return written;
+    }
+
+    /**
+     * Renders {@code count} samples starting at {@code start} on the calling thread, independently of the streaming
+     * position. Samples before the start or after the end of the song are silent.
+     */
+    public void renderAt(int start, short[] out, int outOffset, int count) {
+        Arrays.fill(out, outOffset, outOffset + count, (short) 0);
+
+        int from = Math.max(start, 0);
+        int to = Math.min(start + count, this.totalSamples);
+        ChunkBuffers buffers = new ChunkBuffers();
+
+        for (int chunkStart = from - from % CHUNK_SIZE; chunkStart < to; chunkStart += CHUNK_SIZE) {
+            int overlapFrom = Math.max(from, chunkStart);
+            int overlapTo = Math.min(to, chunkStart + CHUNK_SIZE);
+
+            this.renderChunk(chunkStart, buffers);
+
+            SynthKernels.INSTANCE.quantize(buffers.mix, overlapFrom - chunkStart, 16384.0f, out, outOffset + overlapFrom - start, overlapTo - overlapFrom);
+        }
+    }
+
+    /**
+     * Everything the samples from {@code start} to {@code end} depend on: the range length, how much of it lies before the end of the song, and every
+     * note sounding in that range with its position relative to {@code start}. Equal descriptions render equal samples.
+     */
+    public int[] describeRange(int start, int end) {
+        int[] description = new int[16];
+        int size = 0;
+
+        description[size++] = this.sampleRate;
+        description[size++] = end - start;
+        description[size++] = Math.clamp((long) this.totalSamples - start, 0, end - start);
+
+        for (SoundSource voice : this.voices) {
+            if (voice.getStartSample() >= end) {
+                break;
+            }
+
+            if (voice.getEndSample() <= start) {
+                continue;
+            }
+
+            if (size + voice.getDescriptionSize() > description.length) {
+                description = Arrays.copyOf(description, Math.max(description.length * 2, size + voice.getDescriptionSize()));
+            }
+
+            size = voice.describe(start, description, size);
+        }
+
+        return Arrays.copyOf(description, size);
+    }
+
+    private void fillWindow(int start) {
+        this.windowStart = start;
+        this.windowLength = Math.min(this.window.length, this.totalSamples - start);
+
+        if (this.pool == null || this.windowLength <= CHUNK_SIZE) {
+            this.renderRange(start, this.windowLength, new ChunkBuffers());
+        } else {
+            this.pool.invoke(new ChunkTask(start, this.windowLength));
+        }
+    }
+
+    private void renderRange(int start, int length, ChunkBuffers buffers) {
+        for (int done = 0; done < length; done += CHUNK_SIZE) {
+            this.renderChunk(start + done, buffers);
+
+            SynthKernels.INSTANCE.quantize(buffers.mix, 0, 16384.0f, this.window, start + done - this.windowStart, Math.min(CHUNK_SIZE, length - done));
+        }
+    }
+
+    // The mixdown adds the instrument stems in a fixed order, so a chunk mixes the same whether its stems were cached or not
+    private void renderChunk(int chunkStart, ChunkBuffers buffers) {
+        if (this.token != null) {
+            this.token.check();
+        }
+
+        int length = Math.min(CHUNK_SIZE, this.totalSamples - chunkStart);
+
+        Arrays.fill(buffers.mix, 0.0f);
+
+        for (int instrument = 0; instrument < INSTRUMENTS.length; instrument++) {
+            List<SoundSource> stem = this.stems.get(instrument);
+            int first = this.firstSounding(stem, chunkStart - this.longestVoice[instrument]);
+            int[] description = this.describeStem(stem, first, chunkStart, length);
+
+            // Only the sample rate and length, no note of this instrument sounds here
+            if (description.length == 2) {
+                continue;
+            }
+
+            float[] samples = this.stemCache == null ? null : this.stemCache.get(description);
+
+            if (samples == null) {
+                samples = this.stemCache == null ? buffers.stem : new float[length];
+
+                this.renderStem(stem, first, chunkStart, length, samples, buffers.scratch);
+
+                if (this.stemCache != null) {
+                    this.stemCache.put(description, samples);
+                }
+            }
+
+            SynthKernels.INSTANCE.accumulate(samples, 0, buffers.mix, 0, length);
+        }
+    }
+
+    private void renderStem(List<SoundSource> stem, int first, int chunkStart, int length, float[] out, float[] scratch) {
+        int chunkEnd = chunkStart + length;
+
+        Arrays.fill(out, 0, length, 0.0f);
+
+        for (int i = first; i < stem.size(); i++) {
+            SoundSource voice = stem.get(i);
+
+            if (voice.getStartSample() >= chunkEnd) {
+                break;
+            }
+
+            int from = Math.max(chunkStart, voice.getStartSample());
+            int to = Math.min(chunkEnd, voice.getEndSample());
+
+            if (from >= to) {
+                continue;
+            }
+
+            voice.mixInto(from - voice.getStartSample(), out, from - chunkStart, to - from, scratch);
+        }
+    }
+
+    private int[] describeStem(List<SoundSource> stem, int first, int chunkStart, int length) {
+        int chunkEnd = chunkStart + length;
+        int[] description = new int[16];
+        int size = 0;
+
+        description[size++] = this.sampleRate;
+        description[size++] = length;
+
+        for (int i = first; i < stem.size(); i++) {
+            SoundSource voice = stem.get(i);
+
+            if (voice.getStartSample() >= chunkEnd) {
+                break;
+            }
+
+            if (voice.getEndSample() <= chunkStart) {
+                continue;
+            }
+
+            if (size + voice.getDescriptionSize() > description.length) {
+                description = Arrays.copyOf(description, Math.max(description.length * 2, size + voice.getDescriptionSize()));
+            }
+
+            size = voice.describe(chunkStart, description, size);
+        }
+
+        return Arrays.copyOf(description, size);
+    }
+
+    // Index of the first voice starting at or after the given sample, voices being sorted by start
+    private int firstSounding(List<SoundSource> stem, int from) {
+        int low = 0;
+        int high = stem.size();
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (stem.get(middle).getStartSample() < from) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    public static void toLittleEndian(short[] samples, int count, byte[] out) {
+        for (int i = 0; i < count; i++) {
+            out[2 * i] = (byte) (samples[i] & 0xFF);
+            out[2 * i + 1] = (byte) ((samples[i] >> 8) & 0xFF);
+        }
+    }
+
+    private static class ChunkBuffers {
+        private final float[] mix = new float[CHUNK_SIZE];
+        private final float[] stem = new float[CHUNK_SIZE];
+        private final float[] scratch = new float[CHUNK_SIZE];
+    }
+
+    private class ChunkTask extends RecursiveAction {
+        private final int start;
+        private final int length;
+
+        private ChunkTask(int start, int length) {
+            this.start = start;
+            this.length = length;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.length <= CHUNK_SIZE) {
+                renderRange(this.start, this.length, new ChunkBuffers());
+
+                return;
+            }
+
+            // Split on chunk boundaries so stems line up with the cache
+            int half = (this.length / 2 + CHUNK_SIZE - 1) / CHUNK_SIZE * CHUNK_SIZE;
+
+            invokeAll(new ChunkTask(this.start, half), new ChunkTask(this.start + half, this.length - half));
+        }
+    }
+}
@@ -0,0 +1,399 @@
+package net.wanmine.musicrecorder.music;
+
+import com.hypixel.hytale.server.core.asset.common.CommonAssetModule;
+import com.hypixel.hytale.server.core.asset.common.CommonAssetRegistry;
+import com.hypixel.hytale.server.core.asset.common.asset.FileCommonAsset;
+import net.wanmine.musicrecorder.WansMusicRecorderPlugin;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+
+/**
+ * Writes rendered songs into the runtime asset pack in the background and keeps the pack within a byte and file budget.
+ * Songs are ordered by the modification time of their {@code .ogg}, which is bumped whenever a song is acquired, and
+ * the least recently used ones nobody holds are evicted. SoundEvents left behind without a holder, for example by a
+ * crash, are unregistered as well. The pack is checked against a {@link SongIndex} at startup.
+ */
+public class SongStorage {
+    private static final long SWEEP_INTERVAL_MINUTES = 5;
+    // Songs this fresh may still be encoding under a temporary name
+    private static final long MIN_AGE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    // Stored songs read at once during startup, the rest wait for a permit
+    private static final int PRE_REGISTER_PERMITS = 4;
+    // How long songs registered at startup wait for their jukebox to load before sweeps may unregister them
+    private static final long PRE_REGISTER_GRACE_SECONDS = TimeUnit.MINUTES.toSeconds(15);
+
+    private final SongAssetRegistry registry;
+    private final ScheduledExecutorService scheduler;
+    private final Executor io;
+    private final Path songsPath;
+    private final Path songsEventPath;
+    private final boolean persist;
+    private final long budgetBytes;
+    private final int budgetFiles;
+    private final Path indexDirectory;
+    private final SongIndex index;
+
+    // Songs already registered from memory whose file is still being written
+    private final Map<Path, byte[]> pendingWrites;
+    private final AtomicBoolean sweeping;
+    private ScheduledFuture<?> sweepTimer;
+
+    public SongStorage(SongAssetRegistry registry, ScheduledExecutorService scheduler, Executor io, Path songsPath, Path songsEventPath, boolean persist, long budgetBytes, int budgetFiles, Path indexDirectory) {
+        this.registry = registry;
+        this.scheduler = scheduler;
+        this.io = io;
+        this.songsPath = songsPath;
+        this.songsEventPath = songsEventPath;
+        this.persist = persist;
+        this.budgetBytes = budgetBytes;
+        this.budgetFiles = budgetFiles;
+        this.pendingWrites = new ConcurrentHashMap<>();
+        this.sweeping = new AtomicBoolean();
+        this.indexDirectory = indexDirectory;
+        this.index = SongIndex.load(indexDirectory);
+    }
+
+    /**
+     * Brings the pack in line with the index before it is loaded: leftover WAVs, temporary and UUID-named songs, songs
+     * whose size no longer matches the index and every SoundEvent file are deleted. Returns the songs jukeboxes held at
+     * the last save, which {@link #preRegister(CommonAssetModule, List)} registers again.
+     */
+    public List<String> reconcile() {
+        long start = System.nanoTime();
+        Map<String, SongIndex.Entry> known = this.index.getSongs();
+        Set<String> kept = ConcurrentHashMap.newKeySet();
+        AtomicInteger deleted = new AtomicInteger();
+
+        try {
+            list(this.songsPath, "").parallelStream().forEach(file -> {
+                String name = file.getFileName().toString();
+
+                if (name.endsWith(".ogg") && SongKey.isKey(keyOf(file, ".ogg"))) {
+                    SongIndex.Entry entry = known.get(keyOf(file, ".ogg"));
+
+                    try {
+                        if (entry == null || entry.getSize() == Files.size(file)) {
+                            kept.add(keyOf(file, ".ogg"));
+
+                            return;
+                        }
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+
+                if (deleteQuietly(file)) {
+                    deleted.incrementAndGet();
+                }
+            });
+
+            // Events are cheap to write again, the referenced ones are registered in one batch after loading
+            list(this.songsEventPath, ".json").parallelStream().forEach(file -> {
+                if (deleteQuietly(file)) {
+                    deleted.incrementAndGet();
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            WansMusicRecorderPlugin.getInstance().getLogger().at(Level.WARNING).withCause(e).log("Failed to reconcile the song storage");
+        }
+
+        List<String> referenced = new ArrayList<>();
+
+        for (Map.Entry<String, SongIndex.Entry> entry : known.entrySet()) {
+            if (!kept.contains(entry.getKey())) {
+                this.index.remove(entry.getKey());
+            } else if (entry.getValue().getReferences() > 0) {
+                referenced.add(entry.getKey());
+            }
+        }
+
+        WansMusicRecorderPlugin.getInstance().getLogger().at(Level.INFO).log("Reconciled song storage in %d ms: kept %d songs, deleted %d files, %d songs held before the restart", (System.nanoTime() - start) / 1_000_000, kept.size(), deleted.get(), referenced.size());
+
+        return referenced;
+    }
+
+    /**
+     * Registers the given stored songs in the background, so jukeboxes starting again find them registered. They stay
+     * registered for a while without a holder, since their chunks may load much later. Songs whose content no longer
+     * matches the index are deleted instead.
+     */
+    public void preRegister(CommonAssetModule commonAssetModule, List<String> songKeys) {
+        if (commonAssetModule == null) {
+            return;
+        }
+
+        // Mostly reading files, one task per song, with only a few reading at once so a large pack does not flood the disk
+        Semaphore permits = new Semaphore(PRE_REGISTER_PERMITS);
+
+        for (String songKey : songKeys) {
+            this.io.execute(() -> {
+                permits.acquireUninterruptibly();
+
+                try {
+                    this.registerStored(commonAssetModule, songKey);
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+    }
+
+    private void registerStored(CommonAssetModule commonAssetModule, String songKey) {
+        Path file = this.songsPath.resolve(songKey + ".ogg");
+        String assetName = "Sounds/" + songKey + ".ogg";
+
+        try {
+            if (!CommonAssetRegistry.hasCommonAsset(assetName)) {
+                byte[] bytes = Files.readAllBytes(file);
+                SongIndex.Entry entry = this.index.get(songKey);
+
+                if (entry != null && entry.getSha1() != null && !entry.getSha1().equals(SongIndex.hash(bytes))) {
+                    WansMusicRecorderPlugin.getInstance().getLogger().at(Level.WARNING).log("Stored song %s does not match its index entry, deleting it", songKey);
+
+                    this.index.remove(songKey);
+
+                    deleteQuietly(file);
+
+                    return;
+                }
+
+                commonAssetModule.addCommonAsset(WansMusicRecorderPlugin.RUNTIME_PACK_NAME, new FileCommonAsset(file, assetName, bytes));
+            }
+
+            this.registry.retain(songKey, PRE_REGISTER_GRACE_SECONDS);
+
+            MusicUtils.registerSongEventAsync(songKey + ".json", file.toFile());
+        } catch (IOException | RuntimeException e) {
+            WansMusicRecorderPlugin.getInstance().getLogger().at(Level.WARNING).withCause(e).log("Failed to register stored song %s", songKey);
+        }
+    }
+
+    /**
+     * Records the size, last use and holders of every stored song, called after each sweep and on shutdown.
+     */
+    public void saveIndex() {
+        try {
+            Set<String> stored = new HashSet<>();
+
+            for (Path file : list(this.songsPath, ".ogg")) {
+                String songKey = keyOf(file, ".ogg");
+
+                if (!SongKey.isKey(songKey)) {
+                    continue;
+                }
+
+                SongIndex.Entry previous = this.index.get(songKey);
+
+                stored.add(songKey);
+
+                this.index.put(songKey, new SongIndex.Entry(previous == null ? null : previous.getSha1(), Files.size(file), Files.getLastModifiedTime(file).toMillis(), this.registry.getHolders(songKey)));
+            }
+
+            for (String songKey : this.index.getSongs().keySet()) {
+                if (!stored.contains(songKey)) {
+                    this.index.remove(songKey);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            WansMusicRecorderPlugin.getInstance().getLogger().at(Level.WARNING).withCause(e).log("Failed to update the song index");
+        }
+
+        this.index.save(this.indexDirectory);
+    }
+
+    public void start() {
+        // The scheduler only fires the timer, sweeping walks and deletes files
+        this.sweepTimer = this.scheduler.scheduleWithFixedDelay(() -> this.io.execute(this::sweep), SWEEP_INTERVAL_MINUTES, SWEEP_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Stops scheduling sweeps, a sweep already running is left to finish.
+     */
+    public void stop() {
+        if (this.sweepTimer != null) {
+            this.sweepTimer.cancel(false);
+        }
+    }
+
+    /**
+     * Whether the song can be served without rendering it. Without persistence that holds only while its audio stays
+     * registered.
+     */
+    public boolean isStored(Path file) {
+        if (!this.persist) {
+            return CommonAssetRegistry.hasCommonAsset("Sounds/" + file.getFileName());
+        }
+
+        return this.pendingWrites.containsKey(file) || Files.exists(file);
+    }
+
+    public byte[] read(Path file) throws IOException {
+        byte[] pending = this.pendingWrites.get(file);
+
+        return pending != null ? pending : Files.readAllBytes(file);
+    }
+
+    /**
+     * Writes the song in the background, unless persistence is disabled. Until then {@link #read(Path)} serves it from memory.
+     */
+    public void store(Path file, byte[] bytes) {
+        if (!this.persist) {
+            return;
+        }
+
+        this.pendingWrites.put(file, bytes);
+
+        this.io.execute(() -> {
+            try {
+                write(file, bytes);
+
+                this.index.put(keyOf(file, ".ogg"), new SongIndex.Entry(SongIndex.hash(bytes), bytes.length, System.currentTimeMillis(), 0));
+            } catch (IOException e) {
+                WansMusicRecorderPlugin.getInstance().getLogger().at(Level.WARNING).withCause(e).log("Failed to write song %s", file);
+            } finally {
+                this.pendingWrites.remove(file, bytes);
+            }
+        });
+    }
+
+    public void sweep() {
+        // A sweep outlasting the interval would otherwise run next to the following one
+        if (!this.sweeping.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            this.sweepStorage();
+        } finally {
+            this.sweeping.set(false);
+        }
+    }
+
+    private void sweepStorage() {
+        try {
+            int unregistered = this.sweepEvents();
+            int evicted = this.sweepSongs();
+
+            if (unregistered > 0 || evicted > 0) {
+                WansMusicRecorderPlugin.getInstance().getLogger().at(Level.INFO).log("Unregistered %d unused song events and evicted %d songs from disk", unregistered, evicted);
+            }
+        } catch (IOException | RuntimeException e) {
+            WansMusicRecorderPlugin.getInstance().getLogger().at(Level.WARNING).withCause(e).log("Failed to sweep the song storage");
+        }
+
+        this.saveIndex();
+    }
+
+    private int sweepEvents() throws IOException {
+        int unregistered = 0;
+
+        for (Path file : list(this.songsEventPath, ".json")) {
+            if (this.registry.evict(keyOf(file, ".json"), false)) {
+                unregistered++;
+            }
+        }
+
+        return unregistered;
+    }
+
+    private int sweepSongs() throws IOException {
+        List<StoredSong> songs = new ArrayList<>();
+        long totalBytes = 0;
+
+        for (Path file : list(this.songsPath, ".ogg")) {
+            try {
+                StoredSong song = new StoredSong(keyOf(file, ".ogg"), Files.size(file), Files.getLastModifiedTime(file).toMillis());
+
+                songs.add(song);
+                totalBytes += song.bytes;
+            } catch (IOException e) {
+                // Deleted while listing
+            }
+        }
+
+        songs.sort(Comparator.comparingLong(StoredSong::lastUsed));
+
+        int files = songs.size();
+        int evicted = 0;
+        long youngest = System.currentTimeMillis() - MIN_AGE_MILLIS;
+
+        for (StoredSong song : songs) {
+            if (totalBytes <= this.budgetBytes && files <= this.budgetFiles || song.lastUsed > youngest) {
+                break;
+            }
+
+            if (this.registry.evict(song.key, true)) {
+                this.index.remove(song.key);
+
+                totalBytes -= song.bytes;
+                files--;
+                evicted++;
+            }
+        }
+
+        return evicted;
+    }
+
+    // Written next to the target and moved into place, so a song file that exists is always complete
+    static void write(Path file, byte[] bytes) throws IOException {
+        Path temporaryFile = file.resolveSibling(keyOf(file, ".ogg") + "_" + UUID.randomUUID() + ".ogg");
+
+        try {
+            Files.write(temporaryFile, bytes);
+            Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    private static boolean deleteQuietly(Path file) {
+        try {
+            return Files.deleteIfExists(file);
+        } catch (IOException e) {
+            WansMusicRecorderPlugin.getInstance().getLogger().at(Level.FINE).withCause(e).log("Failed to delete %s", file);
+
+            return false;
+        }
+    }
+
+    public static void touch(Path file) {
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            WansMusicRecorderPlugin.getInstance().getLogger().at(Level.FINE).withCause(e).log("Failed to mark %s as used", file);
+        }
+    }
+
+    private static List<Path> list(Path directory, String extension) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(extension)).toList();
+        }
+    }
+
+    private static String keyOf(Path file, String extension) {
+        String name = file.getFileName().toString();
+
+        return name.substring(0, name.length() - extension.length());
+    }
+
+    private record StoredSong(String key, long bytes, long lastUsed) { }
+}
@@ -0,0 +1,181 @@
+package net.wanmine.musicrecorder.music;
+
+import com.hypixel.hytale.assetstore.AssetLoadResult;
+import com.hypixel.hytale.assetstore.AssetUpdateQuery;
+import com.hypixel.hytale.server.core.asset.type.soundevent.config.SoundEvent;
+import net.wanmine.musicrecorder.WansMusicRecorderPlugin;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+
+/**
+ * Collects SoundEvent loads and removals for a short window and applies them with one asset store update each, so a
+ * region full of jukeboxes loading at once does not send one update per song. Requests for the same event coalesce,
+ * the latest one wins.
+ */
+public class SoundEventBatcher {
+    private static final long WINDOW_MILLIS = 50;
+    private static final int MAX_BATCH = 32;
+
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Operation> pending;
+    private ScheduledFuture<?> scheduledFlush;
+
+    public SoundEventBatcher() {
+        // Callers block on their load, so the flush runs on its own thread rather than on a shared pool they may be using
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "WansMusicRecorder-SoundEvents");
+
+            thread.setDaemon(true);
+
+            return thread;
+        });
+        this.pending = new LinkedHashMap<>();
+    }
+
+    /**
+     * Writes the SoundEvent file unless it exists and queues it for loading. Completes with the event id once loaded,
+     * or with an empty string when loading failed. An event whose file exists and is not queued is already loaded.
+     */
+    public synchronized CompletableFuture<String> register(String eventId, Path file, String json) {
+        Operation operation = this.pending.get(eventId);
+
+        if (operation != null && operation.file != null) {
+            return operation.attach();
+        }
+
+        if (operation == null && Files.exists(file)) {
+            return CompletableFuture.completedFuture(eventId);
+        }
+
+        try {
+            Files.writeString(file, json);
+        } catch (IOException e) {
+            WansMusicRecorderPlugin.getInstance().getLogger().at(Level.SEVERE).withCause(e).log("Failed to write SoundEvent at %s", file);
+
+            return CompletableFuture.completedFuture("");
+        }
+
+        operation = new Operation(file);
+
+        this.enqueue(eventId, operation);
+
+        return operation.attach();
+    }
+
+    public synchronized void remove(String eventId) {
+        this.enqueue(eventId, new Operation(null));
+    }
+
+    public void shutdown() {
+        this.scheduler.shutdown();
+        this.flush();
+    }
+
+    private void enqueue(String eventId, Operation operation) {
+        Operation replaced = this.pending.remove(eventId);
+
+        if (replaced != null) {
+            replaced.complete("");
+        }
+
+        this.pending.put(eventId, operation);
+
+        if (this.pending.size() >= MAX_BATCH) {
+            this.scheduler.execute(this::flush);
+        } else if (this.scheduledFlush == null) {
+            this.scheduledFlush = this.scheduler.schedule(this::flush, WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        Map<String, Operation> batch;
+
+        synchronized (this) {
+            if (this.scheduledFlush != null) {
+                this.scheduledFlush.cancel(false);
+                this.scheduledFlush = null;
+            }
+
+            batch = new LinkedHashMap<>(this.pending);
+
+            this.pending.clear();
+        }
+
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        List<String> removals = new ArrayList<>();
+        List<Path> loads = new ArrayList<>();
+
+        for (Map.Entry<String, Operation> entry : batch.entrySet()) {
+            if (entry.getValue().file == null) {
+                removals.add(entry.getKey());
+            } else {
+                loads.add(entry.getValue().file);
+            }
+        }
+
+        if (!removals.isEmpty()) {
+            try {
+                SoundEvent.getAssetStore().removeAssets(removals);
+            } catch (Exception e) {
+                WansMusicRecorderPlugin.getInstance().getLogger().at(Level.WARNING).withCause(e).log("Failed to remove %d SoundEvent assets", removals.size());
+            }
+        }
+
+        if (loads.isEmpty()) {
+            return;
+        }
+
+        Set<String> loaded = new HashSet<>();
+
+        try {
+            AssetLoadResult<String, SoundEvent> result = SoundEvent.getAssetStore().loadAssetsFromPaths(WansMusicRecorderPlugin.RUNTIME_PACK_NAME, loads, AssetUpdateQuery.DEFAULT, true);
+
+            if (result.hasFailed()) {
+                WansMusicRecorderPlugin.getInstance().getLogger().at(Level.WARNING).log("Some of %d SoundEvent assets failed to load", loads.size());
+            }
+
+            for (SoundEvent soundEvent : result.getLoadedAssets().values()) {
+                loaded.add(soundEvent.getId());
+            }
+        } catch (Exception e) {
+            WansMusicRecorderPlugin.getInstance().getLogger().at(Level.WARNING).withCause(e).log("Failed to load %d SoundEvent assets", loads.size());
+        }
+
+        for (Map.Entry<String, Operation> entry : batch.entrySet()) {
+            if (entry.getValue().file != null) {
+                entry.getValue().complete(loaded.contains(entry.getKey()) ? entry.getKey() : "");
+            }
+        }
+    }
+
+    private static class Operation {
+        private final Path file;
+        private final List<CompletableFuture<String>> waiters = new ArrayList<>();
+
+        private Operation(Path file) {
+            this.file = file;
+        }
+
+        private CompletableFuture<String> attach() {
+            CompletableFuture<String> waiter = new CompletableFuture<>();
+
+            this.waiters.add(waiter);
+
+            return waiter;
+        }
+
+        private void complete(String eventId) {
+            for (CompletableFuture<String> waiter : this.waiters) {
+                waiter.complete(eventId);
+            }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package net.wanmine.musicrecorder.music;
+
+/**
+ * Something the renderer mixes into a song at a fixed sample position: a single note, or a placed pattern.
+ */
+public interface SoundSource {
+    Instrument getInstrument();
+
+    int getStartSample();
+
+    int getLength();
+
+    default int getEndSample() {
+        return this.getStartSample() + this.getLength();
+    }
+
+    /**
+     * Adds {@code count} samples, starting {@code offset} samples after the start, onto {@code mix}.
+     */
+    void mixInto(int offset, float[] mix, int mixOffset, int count, float[] scratch);
+
+    int getDescriptionSize();
+
+    /**
+     * Writes what the samples depend on into {@code description} at {@code size}, positions relative to {@code origin},
+     * and returns the new size. Sources with equal descriptions render equal samples.
+     */
+    int describe(int origin, int[] description, int size);
+}
@@ -0,0 +1,53 @@
+package net.wanmine.musicrecorder.music;
+
+import net.wanmine.musicrecorder.utils.BudgetedLruCache;
+
+import java.util.Arrays;
+
+/**
+ * Rendered chunks of a single instrument's part, keyed by that instrument's notes in the chunk. Editing one instrument
+ * leaves the other instruments' stems valid, so only the edited stem is rendered again before the mixdown.
+ */
+public class StemCache {
+    public static final StemCache SHARED = new StemCache(64L * 1024 * 1024);
+
+    private static final int MAX_ENTRY_SHARE = 64;
+
+    private final BudgetedLruCache<Key, float[]> cache;
+
+    public StemCache(long budgetBytes) {
+        this.cache = new BudgetedLruCache<>(budgetBytes, MAX_ENTRY_SHARE, samples -> (long) samples.length * Float.BYTES);
+    }
+
+    public void setBudget(long budgetBytes) {
+        this.cache.setBudget(budgetBytes);
+    }
+
+    public float[] get(int[] description) {
+        return this.cache.get(new Key(description));
+    }
+
+    public void put(int[] description, float[] samples) {
+        this.cache.put(new Key(description), samples);
+    }
+
+    public void clear() {
+        this.cache.clear();
+    }
+
+    public String getStats() {
+        return this.cache.getStats();
+    }
+
+    private record Key(int[] description) {
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key key && Arrays.equals(this.description, key.description);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(this.description);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package net.wanmine.musicrecorder.music;
+
+import net.wanmine.musicrecorder.WansMusicRecorderPlugin;
+
+import java.util.logging.Level;
+
+/**
+ * The inner loops of synthesis. Both implementations perform the same float and double operations in the same order,
+ * so they produce identical samples.
+ */
+public interface SynthKernels {
+    SynthKernels INSTANCE = load();
+
+    /**
+     * Linearly interpolated wavetable lookup, {@code phase} being the 32-bit fixed point phase of the first sample.
+     */
+    void wavetable(float[] table, int phase, int phaseIncrement, float[] out, int outOffset, int count);
+
+    void noise(int seed, int index, float[] out, int outOffset, int count);
+
+    /**
+     * Multiplies each sample by {@code (float) (base + slope * k)}, k counting up from {@code start}.
+     */
+    void ramp(double base, double slope, int start, float[] out, int outOffset, int count);
+
+    void accumulate(float[] source, int sourceOffset, float[] target, int targetOffset, int count);
+
+    void quantize(float[] source, int sourceOffset, float scale, short[] target, int targetOffset, int count);
+
+    String getName();
+
+    // The vector kernels only load when the server was started with --add-modules jdk.incubator.vector
+    private static SynthKernels load() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (SynthKernels) Class.forName("net.wanmine.musicrecorder.music.VectorSynthKernels").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+                WansMusicRecorderPlugin plugin = WansMusicRecorderPlugin.getInstance();
+
+                if (plugin != null) {
+                    plugin.getLogger().at(Level.WARNING).withCause(e).log("Vector API is present but unusable, using scalar synthesis");
+                }
+            }
+        }
+
+        return new ScalarSynthKernels();
+    }
+}
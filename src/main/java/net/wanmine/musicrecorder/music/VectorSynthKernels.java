@@ -0,0 +1,116 @@
+package net.wanmine.musicrecorder.music;
+
+import jdk.incubator.vector.*;
+
+/**
+ * Vector API versions of the scalar kernels. Only loaded through {@link SynthKernels} once the incubator module is known
+ * to be present, since referencing this class otherwise fails to link.
+ */
+public class VectorSynthKernels extends ScalarSynthKernels {
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = VectorSpecies.of(int.class, FLOATS.vectorShape());
+    private static final VectorSpecies<Short> SHORTS = VectorSpecies.of(short.class, VectorShape.forBitSize(FLOATS.vectorBitSize() / 2));
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> RAMP_FLOATS = VectorSpecies.of(float.class, VectorShape.forBitSize(DOUBLES.vectorBitSize() / 2));
+
+    private static final ThreadLocal<int[]> INDICES = ThreadLocal.withInitial(() -> new int[2 * INTS.length()]);
+
+    @Override
+    public void wavetable(float[] table, int phase, int phaseIncrement, float[] out, int outOffset, int count) {
+        int lanes = INTS.length();
+        int bound = count - count % lanes;
+        int[] indices = INDICES.get();
+        IntVector steps = IntVector.zero(INTS).addIndex(1).mul(phaseIncrement);
+        int j = 0;
+
+        for (; j < bound; j += lanes) {
+            IntVector phases = steps.add(phase);
+            IntVector index = phases.lanewise(VectorOperators.LSHR, Oscillator.FRACTION_BITS);
+
+            index.intoArray(indices, 0);
+            index.add(1).intoArray(indices, lanes);
+
+            FloatVector fraction = ((FloatVector) phases.and(Oscillator.FRACTION_MASK).convert(VectorOperators.I2F, 0)).mul(Oscillator.FRACTION_SCALE);
+            FloatVector a = FloatVector.fromArray(FLOATS, table, 0, indices, 0);
+            FloatVector b = FloatVector.fromArray(FLOATS, table, 0, indices, lanes);
+
+            a.add(b.sub(a).mul(fraction)).intoArray(out, outOffset + j);
+
+            phase += phaseIncrement * lanes;
+        }
+
+        super.wavetable(table, phase, phaseIncrement, out, outOffset + j, count - j);
+    }
+
+    @Override
+    public void noise(int seed, int index, float[] out, int outOffset, int count) {
+        int lanes = INTS.length();
+        int bound = count - count % lanes;
+        IntVector iota = IntVector.zero(INTS).addIndex(1);
+        int j = 0;
+
+        for (; j < bound; j += lanes) {
+            IntVector h = iota.add(index + j).mul(0x9E3779B9).lanewise(VectorOperators.XOR, seed);
+
+            h = h.lanewise(VectorOperators.XOR, h.lanewise(VectorOperators.LSHR, 16)).mul(0x85EBCA6B);
+            h = h.lanewise(VectorOperators.XOR, h.lanewise(VectorOperators.LSHR, 13)).mul(0xC2B2AE35);
+            h = h.lanewise(VectorOperators.XOR, h.lanewise(VectorOperators.LSHR, 16));
+
+            ((FloatVector) h.lanewise(VectorOperators.ASHR, 8).convert(VectorOperators.I2F, 0)).mul(Oscillator.NOISE_SCALE).intoArray(out, outOffset + j);
+        }
+
+        super.noise(seed, index + j, out, outOffset + j, count - j);
+    }
+
+    @Override
+    public void ramp(double base, double slope, int start, float[] out, int outOffset, int count) {
+        int lanes = DOUBLES.length();
+        int bound = count - count % lanes;
+        DoubleVector iota = DoubleVector.zero(DOUBLES).addIndex(1);
+        int j = 0;
+
+        for (; j < bound; j += lanes) {
+            DoubleVector k = iota.add(start + j);
+            FloatVector level = (FloatVector) k.mul(slope).add(base).convertShape(VectorOperators.D2F, RAMP_FLOATS, 0);
+
+            FloatVector.fromArray(RAMP_FLOATS, out, outOffset + j).mul(level).intoArray(out, outOffset + j);
+        }
+
+        super.ramp(base, slope, start + j, out, outOffset + j, count - j);
+    }
+
+    @Override
+    public void accumulate(float[] source, int sourceOffset, float[] target, int targetOffset, int count) {
+        int lanes = FLOATS.length();
+        int bound = count - count % lanes;
+        int j = 0;
+
+        for (; j < bound; j += lanes) {
+            FloatVector sum = FloatVector.fromArray(FLOATS, target, targetOffset + j).add(FloatVector.fromArray(FLOATS, source, sourceOffset + j));
+
+            sum.intoArray(target, targetOffset + j);
+        }
+
+        super.accumulate(source, sourceOffset + j, target, targetOffset + j, count - j);
+    }
+
+    @Override
+    public void quantize(float[] source, int sourceOffset, float scale, short[] target, int targetOffset, int count) {
+        int lanes = FLOATS.length();
+        int bound = count - count % lanes;
+        int j = 0;
+
+        for (; j < bound; j += lanes) {
+            IntVector value = (IntVector) FloatVector.fromArray(FLOATS, source, sourceOffset + j).mul(scale).convert(VectorOperators.F2I, 0);
+
+            ((ShortVector) value.max(Short.MIN_VALUE).min(Short.MAX_VALUE).convertShape(VectorOperators.I2S, SHORTS, 0)).intoArray(target, targetOffset + j);
+        }
+
+        super.quantize(source, sourceOffset + j, scale, target, targetOffset + j, count - j);
+    }
+
+    @Override
+    public String getName() {
+        return "vector (" + FLOATS.length() + " lanes)";
+    }
+}
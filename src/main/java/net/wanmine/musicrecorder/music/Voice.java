@@ -0,0 +1,111 @@
+package net.wanmine.musicrecorder.music;
+
+public class Voice implements SoundSource {
+    private final Note note;
+    private final int sampleRate;
+    private final NoteCache cache;
+    private final Instrument.WaveformType waveform;
+    private final int phaseIncrement;
+    private final int seed;
+    private final int startSample;
+    private final Envelope envelope;
+
+    private volatile float[] samples;
+
+    public Voice(Note note, double gridSpaceDuration, int sampleRate, NoteCache cache) {
+        this.note = note;
+        this.sampleRate = sampleRate;
+        this.cache = cache;
+        this.waveform = note.getInstrument().getWaveformType();
+        this.phaseIncrement = Oscillator.phaseIncrement(note.getFrequency(), sampleRate);
+        this.seed = note.getOctave() * 12 + note.getSemitone();
+        this.startSample = (int) (note.getPosition() * gridSpaceDuration * sampleRate);
+
+        int endSample = (int) (note.getEndPosition() * gridSpaceDuration * sampleRate);
+
+        this.envelope = new Envelope(endSample - this.startSample, sampleRate);
+    }
+
+    public Note getNote() {
+        return note;
+    }
+
+    @Override
+    public Instrument getInstrument() {
+        return note.getInstrument();
+    }
+
+    @Override
+    public int getStartSample() {
+        return startSample;
+    }
+
+    @Override
+    public int getLength() {
+        return envelope.getLength();
+    }
+
+    @Override
+    public int getDescriptionSize() {
+        return 5;
+    }
+
+    @Override
+    public int describe(int origin, int[] description, int size) {
+        description[size++] = this.note.getInstrument().ordinal();
+        description[size++] = this.note.getOctave();
+        description[size++] = this.note.getSemitone();
+        description[size++] = this.startSample - origin;
+        description[size++] = this.getLength();
+
+        return size;
+    }
+
+    /**
+     * Cacheable notes are rendered whole once and mixed from the cached buffer, others are rendered through {@code scratch}.
+     */
+    @Override
+    public void mixInto(int offset, float[] mix, int mixOffset, int count, float[] scratch) {
+        float[] cached = this.cachedSamples();
+
+        if (cached != null) {
+            SynthKernels.INSTANCE.accumulate(cached, offset, mix, mixOffset, count);
+
+            return;
+        }
+
+        this.render(offset, scratch, 0, count);
+
+        SynthKernels.INSTANCE.accumulate(scratch, 0, mix, mixOffset, count);
+    }
+
+    private float[] cachedSamples() {
+        float[] result = this.samples;
+
+        if (result != null || this.cache == null || !this.cache.accepts(this.getLength())) {
+            return result;
+        }
+
+        synchronized (this) {
+            if (this.samples == null) {
+                result = this.cache.get(this.note, this.getLength(), this.sampleRate);
+
+                if (result == null) {
+                    result = new float[this.getLength()];
+
+                    this.render(0, result, 0, result.length);
+                    this.cache.put(this.note, this.getLength(), this.sampleRate, result);
+                }
+
+                this.samples = result;
+            }
+
+            return this.samples;
+        }
+    }
+
+    public void render(int offset, float[] out, int outOffset, int count) {
+        Oscillator.fill(this.waveform, this.phaseIncrement, this.seed, offset, out, outOffset, count);
+        this.envelope.apply(offset, out, outOffset, count);
+    }
+}
@@ -0,0 +1,37 @@
+package net.wanmine.musicrecorder.music.encoder;
+
+import net.wanmine.musicrecorder.music.SongRenderer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+public interface AudioEncoder {
+    String getName();
+
+    boolean isAvailable();
+
+    /**
+     * Renders the whole song and writes it to {@code outputFile} as Ogg/Vorbis.
+     */
+    void encode(SongRenderer renderer, File outputFile) throws IOException;
+
+    /**
+     * Renders the whole song and returns it as Ogg/Vorbis, encoded as if it was written to a file named {@code fileName}.
+     * Backends that can only write files go through a temporary file.
+     */
+    default byte[] encode(SongRenderer renderer, String fileName) throws IOException {
+        File temporaryFile = Files.createTempFile("song-", ".ogg").toFile();
+
+        try {
+            this.encode(renderer, temporaryFile);
+
+            return Files.readAllBytes(temporaryFile.toPath());
+        } finally {
+            Files.deleteIfExists(temporaryFile.toPath());
+        }
+    }
+
+    default void shutdown() {
+    }
+}
@@ -0,0 +1,270 @@
+package net.wanmine.musicrecorder.music.encoder;
+
+import net.wanmine.musicrecorder.WansMusicRecorderPlugin;
+import net.wanmine.musicrecorder.music.Instrument;
+import net.wanmine.musicrecorder.music.MusicGraph;
+import net.wanmine.musicrecorder.music.Note;
+import net.wanmine.musicrecorder.music.NoteCache;
+import net.wanmine.musicrecorder.music.RenderToken;
+import net.wanmine.musicrecorder.music.SongRenderer;
+import net.wanmine.musicrecorder.music.StemCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+
+/**
+ * Picks the fastest working encoder backend at startup and falls through to the next one when a backend fails.
+ * Songs encoded before the backends were benchmarked wait for it, so they do not end up on a backend that is not ready.
+ */
+public class AudioEncoders {
+    public static final String AUTO = "auto";
+
+    private static final int BENCHMARK_RUNS = 2;
+
+    private final int sampleRate;
+    private final ForkJoinPool pool;
+    private final List<AudioEncoder> encoders;
+    private final List<AudioEncoder> ranking;
+    private final CompletableFuture<Void> ready;
+
+    public AudioEncoders(int sampleRate, List<AudioEncoder> encoders) {
+        this(sampleRate, ForkJoinPool.commonPool(), encoders);
+    }
+
+    /**
+     * Songs are synthesized and encoded on the given pool.
+     */
+    public AudioEncoders(int sampleRate, ForkJoinPool pool, List<AudioEncoder> encoders) {
+        this.sampleRate = sampleRate;
+        this.pool = pool;
+        this.encoders = List.copyOf(encoders);
+        this.ranking = new CopyOnWriteArrayList<>(encoders);
+        this.ready = new CompletableFuture<>();
+    }
+
+    /**
+     * Encodes a short song with every available backend and orders them by speed, dropping the ones that fail.
+     * A configured backend name other than {@link #AUTO} is moved to the front when it passes.
+     */
+    public void benchmark(Path workDirectory, String preferred) {
+        try {
+            this.rank(workDirectory, preferred);
+        } finally {
+            this.ready.complete(null);
+        }
+    }
+
+    public boolean isReady() {
+        return this.ready.isDone();
+    }
+
+    private void rank(Path workDirectory, String preferred) {
+        Map<AudioEncoder, Long> timings = new HashMap<>();
+
+        for (AudioEncoder encoder : this.encoders) {
+            if (!encoder.isAvailable()) {
+                WansMusicRecorderPlugin.getInstance().getLogger().at(Level.INFO).log("Audio encoder %s is not available", encoder.getName());
+
+                continue;
+            }
+
+            try {
+                long best = Long.MAX_VALUE;
+
+                for (int i = 0; i < BENCHMARK_RUNS; i++) {
+                    best = Math.min(best, this.timeEncode(encoder, benchmarkGraph(i), workDirectory));
+                }
+
+                timings.put(encoder, best);
+
+                WansMusicRecorderPlugin.getInstance().getLogger().at(Level.INFO).log("Audio encoder %s took %d ms", encoder.getName(), best / 1_000_000);
+            } catch (IOException | RuntimeException e) {
+                WansMusicRecorderPlugin.getInstance().getLogger().at(Level.WARNING).withCause(e).log("Audio encoder %s failed its benchmark", encoder.getName());
+            }
+        }
+
+        List<AudioEncoder> healthy = new ArrayList<>(timings.keySet());
+
+        healthy.sort(Comparator.comparingLong(timings::get));
+
+        if (!AUTO.equalsIgnoreCase(preferred)) {
+            Optional<AudioEncoder> match = healthy.stream().filter(encoder -> encoder.getName().equalsIgnoreCase(preferred)).findFirst();
+
+            if (match.isPresent()) {
+                healthy.remove(match.get());
+                healthy.addFirst(match.get());
+            } else {
+                WansMusicRecorderPlugin.getInstance().getLogger().at(Level.WARNING).log("Configured audio encoder %s is unknown or unhealthy, selecting automatically", preferred);
+            }
+        }
+
+        if (healthy.isEmpty()) {
+            WansMusicRecorderPlugin.getInstance().getLogger().at(Level.SEVERE).log("No audio encoder passed its benchmark, keeping the default order");
+
+            return;
+        }
+
+        this.ranking.clear();
+        this.ranking.addAll(healthy);
+
+        WansMusicRecorderPlugin.getInstance().getLogger().at(Level.INFO).log("Using audio encoder %s", healthy.getFirst().getName());
+    }
+
+    public void encode(MusicGraph graph, File outputFile) throws IOException {
+        this.encodeWithFallback(outputFile.getName(), null, encoder -> {
+            encoder.encode(this.newRenderer(graph, null), outputFile);
+
+            return null;
+        });
+    }
+
+    /**
+     * Encodes the song into memory, for registering it before or without writing it to disk.
+     */
+    public byte[] encode(MusicGraph graph, String fileName) throws IOException {
+        return this.encode(graph, fileName, null);
+    }
+
+    /**
+     * Like {@link #encode(MusicGraph, String)}, stopping with an {@link InterruptedIOException} once the token is cancelled.
+     */
+    public byte[] encode(MusicGraph graph, String fileName, RenderToken token) throws IOException {
+        return this.encodeWithFallback(fileName, token, encoder -> encoder.encode(this.newRenderer(graph, token), fileName));
+    }
+
+    private <T> T encodeWithFallback(String fileName, RenderToken token, Encoding<T> encoding) throws IOException {
+        this.awaitReady(fileName, token);
+
+        IOException failure = null;
+
+        for (AudioEncoder encoder : this.ranking) {
+            try {
+                return encoding.run(encoder);
+            } catch (CancellationException e) {
+                // Not the backend's fault, and the next backend would be cancelled just the same
+                throw stopped(fileName, token);
+            } catch (IOException | RuntimeException e) {
+                // Cancelling kills an ffmpeg backend's process, which surfaces as a broken pipe rather than a cancellation
+                if (token != null && token.isCancelled()) {
+                    throw stopped(fileName, token);
+                }
+
+                WansMusicRecorderPlugin.getInstance().getLogger().at(Level.WARNING).withCause(e).log("Audio encoder %s failed for %s", encoder.getName(), fileName);
+
+                this.demote(encoder);
+
+                if (failure == null) {
+                    failure = new IOException("All audio encoders failed for " + fileName);
+                }
+
+                failure.addSuppressed(e);
+            }
+        }
+
+        throw failure != null ? failure : new IOException("No audio encoder is configured");
+    }
+
+    private static InterruptedIOException stopped(String fileName, RenderToken token) {
+        return new InterruptedIOException("Encoding " + fileName + " was stopped: " + (token != null && token.getReason() != null ? token.getReason() : "cancelled"));
+    }
+
+    // A cancelled render stops waiting right away instead of holding its render slot until a slow download finishes
+    private void awaitReady(String fileName, RenderToken token) throws IOException {
+        if (this.ready.isDone()) {
+            return;
+        }
+
+        WansMusicRecorderPlugin.getInstance().getLogger().at(Level.INFO).log("Waiting for the audio encoders to be ready before encoding %s", fileName);
+
+        CompletableFuture<Void> cancelled = new CompletableFuture<>();
+        Runnable unregister = token == null ? () -> { } : token.onCancel(() -> cancelled.complete(null));
+
+        try {
+            CompletableFuture.anyOf(this.ready, cancelled).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException("Interrupted while waiting for the audio encoders");
+        } catch (ExecutionException e) {
+            throw new IOException("Audio encoders failed to start", e.getCause());
+        } finally {
+            unregister.run();
+        }
+
+        if (cancelled.isDone()) {
+            throw stopped(fileName, token);
+        }
+    }
+
+    public AudioEncoder getActive() {
+        return this.ranking.isEmpty() ? null : this.ranking.getFirst();
+    }
+
+    public void shutdown() {
+        for (AudioEncoder encoder : this.encoders) {
+            encoder.shutdown();
+        }
+    }
+
+    // A failing backend goes to the back of the queue instead of being dropped, it may only be failing for this song
+    private synchronized void demote(AudioEncoder encoder) {
+        if (this.ranking.size() > 1 && this.ranking.remove(encoder)) {
+            this.ranking.add(encoder);
+        }
+    }
+
+    private long timeEncode(AudioEncoder encoder, MusicGraph graph, Path workDirectory) throws IOException {
+        Path output = Files.createTempFile(workDirectory, "benchmark-", ".ogg");
+
+        try {
+            long start = System.nanoTime();
+
+            encoder.encode(this.newRenderer(graph, null), output.toFile());
+
+            long elapsed = System.nanoTime() - start;
+
+            try (InputStream in = Files.newInputStream(output)) {
+                byte[] magic = in.readNBytes(4);
+
+                if (!Arrays.equals(magic, new byte[] {'O', 'g', 'g', 'S'})) {
+                    throw new IOException("Benchmark output is not an Ogg stream");
+                }
+            }
+
+            return elapsed;
+        } finally {
+            Files.deleteIfExists(output);
+        }
+    }
+
+    private SongRenderer newRenderer(MusicGraph graph, RenderToken token) {
+        return new SongRenderer(graph, this.sampleRate, this.pool, NoteCache.SHARED, StemCache.SHARED, token);
+    }
+
+    private interface Encoding<T> {
+        T run(AudioEncoder encoder) throws IOException;
+    }
+
+    // Each run uses a different tempo so no run is served from an earlier run's caches
+    private static MusicGraph benchmarkGraph(int run) {
+        MusicGraph graph = new MusicGraph(3, 140 + run, 64);
+        Instrument[] instruments = Instrument.values();
+
+        for (int i = 0; i < 64; i += 2) {
+            graph.addNote(new Note(i % 3, (i * 7) % 12, i, 2, instruments[(i / 2) % instruments.length]));
+        }
+
+        return graph;
+    }
+}
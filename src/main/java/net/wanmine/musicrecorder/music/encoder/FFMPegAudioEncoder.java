@@ -0,0 +1,96 @@
+package net.wanmine.musicrecorder.music.encoder;
+
+import net.wanmine.musicrecorder.music.FFMPegLocator;
+import net.wanmine.musicrecorder.music.SongRenderer;
+import ws.schild.jave.process.ProcessWrapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class FFMPegAudioEncoder implements AudioEncoder {
+    @Override
+    public String getName() {
+        return "ffmpeg";
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return new FFMPegLocator().getExecutablePath() != null;
+    }
+
+    // Raw PCM is piped into ffmpeg block by block, so encoding runs alongside synthesis and no WAV file is written
+    @Override
+    public void encode(SongRenderer renderer, File outputFile) throws IOException {
+        FFMPegLocator locator = new FFMPegLocator();
+
+        if (locator.getExecutablePath() == null) {
+            throw new IOException("FFMPeg binary is not available");
+        }
+
+        try (ProcessWrapper ffmpeg = locator.createExecutor()) {
+            addArguments(ffmpeg, renderer.getSampleRate(), outputFile.getAbsolutePath());
+
+            ffmpeg.execute();
+
+            Runnable unregister = killOnCancel(renderer, ffmpeg);
+
+            try {
+                writePcm(renderer, ffmpeg.getOutputStream());
+                checkExitCode(ffmpeg);
+            } finally {
+                unregister.run();
+            }
+        }
+    }
+
+    // Rendering stops at the next chunk by itself, this also ends an ffmpeg that is blocking the render on a write
+    static Runnable killOnCancel(SongRenderer renderer, ProcessWrapper ffmpeg) {
+        return renderer.getToken() == null ? () -> { } : renderer.getToken().onCancel(ffmpeg::destroy);
+    }
+
+    static void addArguments(ProcessWrapper ffmpeg, int sampleRate, String output) {
+        for (String argument : getArguments(sampleRate, output)) {
+            ffmpeg.addArgument(argument);
+        }
+    }
+
+    static List<String> getArguments(int sampleRate, String output) {
+        return List.of(
+                "-loglevel", "error",
+                "-f", "s16le",
+                "-ar", String.valueOf(sampleRate),
+                "-ac", "1",
+                "-i", "pipe:0",
+                "-c:a", "libvorbis",
+                "-b:a", "128k",    // 128 kbps
+                "-f", "ogg",
+                "-y", output
+        );
+    }
+
+    static void writePcm(SongRenderer renderer, OutputStream stdin) throws IOException {
+        short[] samples = new short[SongRenderer.BLOCK_SIZE];
+        byte[] pcm = new byte[samples.length * 2];
+
+        try (stdin) {
+            int count;
+
+            while ((count = renderer.render(samples)) > 0) {
+                SongRenderer.toLittleEndian(samples, count, pcm);
+                stdin.write(pcm, 0, count * 2);
+            }
+        }
+    }
+
+    static void checkExitCode(ProcessWrapper ffmpeg) throws IOException {
+        String errors = new String(ffmpeg.getErrorStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+        int exitCode = ffmpeg.getProcessExitCode();
+
+        if (exitCode != 0) {
+            throw new IOException("FFMPeg exited with code " + exitCode + ": " + errors);
+        }
+    }
+}
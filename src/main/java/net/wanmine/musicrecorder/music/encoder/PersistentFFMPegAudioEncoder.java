@@ -0,0 +1,237 @@
+package net.wanmine.musicrecorder.music.encoder;
+
+import net.wanmine.musicrecorder.WansMusicRecorderPlugin;
+import net.wanmine.musicrecorder.music.FFMPegLocator;
+import net.wanmine.musicrecorder.music.SongRenderer;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+
+/**
+ * Keeps a small pool of ffmpeg processes started and waiting on stdin, so a song only pays for feeding PCM and not for
+ * process startup. The encoded stream comes back over stdout, which lets a process be spawned before the output is known.
+ * ffmpeg finishes its stream at the end of its input, so each process encodes one song and the pool is topped up in the
+ * background after every take. Workers that died or idled too long are replaced by a periodic health check.
+ */
+public class PersistentFFMPegAudioEncoder implements AudioEncoder {
+    private static final long HEALTH_CHECK_SECONDS = 30;
+    // Recycled after this long so a replaced binary or a wedged process does not linger
+    private static final long MAX_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private final int sampleRate;
+    private final int workers;
+    private final BlockingDeque<Worker> idle;
+    private final ScheduledExecutorService maintenance;
+
+    // Resolved once, the locator checks the file system on every lookup
+    private volatile String executablePath;
+    // Nothing is spawned before the first song, so a server that never uses this backend runs no ffmpeg
+    private volatile boolean used;
+
+    public PersistentFFMPegAudioEncoder(int sampleRate, int workers) {
+        this.sampleRate = sampleRate;
+        this.workers = Math.max(1, workers);
+        this.idle = new LinkedBlockingDeque<>();
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "WansMusicRecorder-FFMPegPool");
+
+            thread.setDaemon(true);
+
+            return thread;
+        });
+
+        this.maintenance.scheduleWithFixedDelay(this::checkHealth, HEALTH_CHECK_SECONDS, HEALTH_CHECK_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public String getName() {
+        return "ffmpeg-persistent";
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return this.getExecutablePath() != null;
+    }
+
+    @Override
+    public void encode(SongRenderer renderer, File outputFile) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(outputFile))) {
+            this.encode(renderer, out);
+        }
+    }
+
+    @Override
+    public byte[] encode(SongRenderer renderer, String fileName) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        this.encode(renderer, out);
+
+        return out.toByteArray();
+    }
+
+    private void encode(SongRenderer renderer, OutputStream out) throws IOException {
+        if (renderer.getSampleRate() != this.sampleRate) {
+            throw new IOException("Standby FFMPeg process expects " + this.sampleRate + " Hz");
+        }
+
+        Worker worker = this.take();
+        Process process = worker.process;
+        Runnable unregister = renderer.getToken() == null ? () -> { } : renderer.getToken().onCancel(process::destroyForcibly);
+
+        try {
+            IOException[] copyError = new IOException[1];
+            // Only waits on the pipe, so it does not need a platform thread
+            Thread copier = Thread.ofVirtual().name("WansMusicRecorder-FFMPegOutput").start(() -> {
+                try (InputStream in = process.getInputStream()) {
+                    in.transferTo(out);
+                } catch (IOException e) {
+                    copyError[0] = e;
+                }
+            });
+
+            FFMPegAudioEncoder.writePcm(renderer, process.getOutputStream());
+
+            try {
+                copier.join();
+
+                String errors = new String(process.getErrorStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+                int exitCode = process.waitFor();
+
+                if (copyError[0] != null) {
+                    throw copyError[0];
+                }
+
+                if (exitCode != 0) {
+                    throw new IOException("FFMPeg exited with code " + exitCode + ": " + errors);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                throw new InterruptedIOException("Interrupted while waiting for FFMPeg output");
+            }
+        } finally {
+            unregister.run();
+
+            process.destroy();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        this.maintenance.shutdownNow();
+
+        Worker worker;
+
+        while ((worker = this.idle.poll()) != null) {
+            worker.process.destroy();
+        }
+    }
+
+    // Spawns on the calling thread only when no healthy worker is waiting
+    private Worker take() throws IOException {
+        Worker worker;
+
+        this.used = true;
+
+        try {
+            while ((worker = this.idle.poll()) != null) {
+                if (worker.isHealthy()) {
+                    return worker;
+                }
+
+                worker.process.destroy();
+            }
+
+            return this.spawn();
+        } finally {
+            this.refillLater();
+        }
+    }
+
+    private void refillLater() {
+        try {
+            this.maintenance.execute(this::refill);
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+        }
+    }
+
+    private void refill() {
+        while (this.idle.size() < this.workers) {
+            try {
+                this.idle.add(this.spawn());
+            } catch (IOException e) {
+                WansMusicRecorderPlugin.getInstance().getLogger().at(Level.WARNING).withCause(e).log("Failed to start standby FFMPeg process");
+
+                return;
+            }
+        }
+    }
+
+    private void checkHealth() {
+        if (!this.used) {
+            return;
+        }
+
+        List<Worker> replaced = new ArrayList<>();
+
+        for (Worker worker : this.idle) {
+            if (!worker.isHealthy() && this.idle.remove(worker)) {
+                replaced.add(worker);
+            }
+        }
+
+        for (Worker worker : replaced) {
+            WansMusicRecorderPlugin.getInstance().getLogger().at(Level.FINE).log("Replacing standby FFMPeg process %d, alive: %s", worker.process.pid(), worker.process.isAlive());
+
+            worker.process.destroy();
+        }
+
+        this.refill();
+    }
+
+    private Worker spawn() throws IOException {
+        String path = this.getExecutablePath();
+
+        if (path == null) {
+            throw new IOException("FFMPeg binary is not available");
+        }
+
+        List<String> command = new ArrayList<>();
+
+        command.add(path);
+        command.add("-hide_banner");
+        command.addAll(FFMPegAudioEncoder.getArguments(this.sampleRate, "pipe:1"));
+
+        try {
+            return new Worker(new ProcessBuilder(command).start(), System.currentTimeMillis());
+        } catch (IOException e) {
+            // The binary may have been replaced or removed, look it up again next time
+            this.executablePath = null;
+
+            throw e;
+        }
+    }
+
+    private String getExecutablePath() {
+        String path = this.executablePath;
+
+        if (path == null) {
+            path = new FFMPegLocator().getExecutablePath();
+
+            this.executablePath = path;
+        }
+
+        return path;
+    }
+
+    private record Worker(Process process, long spawned) {
+        private boolean isHealthy() {
+            return this.process.isAlive() && System.currentTimeMillis() - this.spawned < MAX_IDLE_MILLIS;
+        }
+    }
+}
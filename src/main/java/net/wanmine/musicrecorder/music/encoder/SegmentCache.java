@@ -0,0 +1,64 @@
+package net.wanmine.musicrecorder.music.encoder;
+
+import net.wanmine.musicrecorder.utils.BudgetedLruCache;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encoded Vorbis packets for fixed runs of blocks, keyed by the description of everything their samples depend on.
+ * Re-encoding a song after a small edit only has to encode the segments around the changed notes.
+ */
+public class SegmentCache {
+    public static final SegmentCache SHARED = new SegmentCache(32L * 1024 * 1024);
+
+    private static final int MAX_ENTRY_SHARE = 64;
+
+    private final BudgetedLruCache<Key, List<byte[]>> cache;
+
+    public SegmentCache(long budgetBytes) {
+        this.cache = new BudgetedLruCache<>(budgetBytes, MAX_ENTRY_SHARE, SegmentCache::weigh);
+    }
+
+    public void setBudget(long budgetBytes) {
+        this.cache.setBudget(budgetBytes);
+    }
+
+    public List<byte[]> get(int[] description) {
+        return this.cache.get(new Key(description));
+    }
+
+    public void put(int[] description, List<byte[]> packets) {
+        this.cache.put(new Key(description), List.copyOf(packets));
+    }
+
+    public void clear() {
+        this.cache.clear();
+    }
+
+    public String getStats() {
+        return this.cache.getStats();
+    }
+
+    private static long weigh(List<byte[]> packets) {
+        long bytes = 0;
+
+        for (byte[] packet : packets) {
+            bytes += packet.length + 16;
+        }
+
+        return bytes;
+    }
+
+    private record Key(int[] description) {
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key key && Arrays.equals(this.description, key.description);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(this.description);
+        }
+    }
+}
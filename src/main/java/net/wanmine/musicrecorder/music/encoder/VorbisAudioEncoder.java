@@ -0,0 +1,129 @@
+package net.wanmine.musicrecorder.music.encoder;
+
+import net.wanmine.musicrecorder.music.SongRenderer;
+import net.wanmine.musicrecorder.music.vorbis.VorbisBlockEncoder;
+import net.wanmine.musicrecorder.music.vorbis.VorbisEncoder;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+public class VorbisAudioEncoder implements AudioEncoder {
+    // 64 blocks of 1024 new samples, about 1.5 seconds at 44.1 kHz
+    private static final int SEGMENT_BLOCKS = 64;
+
+    private static final ThreadLocal<VorbisBlockEncoder> BLOCK_ENCODERS = ThreadLocal.withInitial(VorbisBlockEncoder::new);
+
+    private final SegmentCache cache;
+
+    public VorbisAudioEncoder(SegmentCache cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public String getName() {
+        return "vorbis";
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    public void encode(SongRenderer renderer, File outputFile) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(outputFile))) {
+            this.encode(renderer, outputFile.getName().hashCode(), out);
+        }
+    }
+
+    @Override
+    public byte[] encode(SongRenderer renderer, String fileName) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        this.encode(renderer, fileName.hashCode(), out);
+
+        return out.toByteArray();
+    }
+
+    private void encode(SongRenderer renderer, int serial, OutputStream out) throws IOException {
+        if (this.cache == null) {
+            this.encodeStreaming(renderer, serial, out);
+
+            return;
+        }
+
+        int totalSamples = renderer.getTotalSamples();
+        int blocks = VorbisEncoder.getBlockCount(totalSamples);
+        int segments = (blocks + SEGMENT_BLOCKS - 1) / SEGMENT_BLOCKS;
+
+        // Segments are independent of each other, so the ones that miss the cache encode in parallel on the renderer's
+        // pool, a parallel stream started from a pool task stays in that pool
+        ForkJoinPool pool = renderer.getPool();
+        IntStream range = IntStream.range(0, segments);
+        List<List<byte[]>> encoded = pool == null ? this.encodeSegments(renderer, range, blocks) : pool.submit(() -> this.encodeSegments(renderer, range.parallel(), blocks)).join();
+
+        List<byte[]> packets = new ArrayList<>(blocks);
+
+        for (List<byte[]> segment : encoded) {
+            packets.addAll(segment);
+        }
+
+        VorbisEncoder.writeStream(out, renderer.getSampleRate(), serial, packets, totalSamples);
+    }
+
+    public SegmentCache getCache() {
+        return cache;
+    }
+
+    private List<List<byte[]>> encodeSegments(SongRenderer renderer, IntStream segments, int blocks) {
+        return segments.mapToObj(segment -> this.encodeSegment(renderer, segment * SEGMENT_BLOCKS, Math.min(blocks, (segment + 1) * SEGMENT_BLOCKS))).toList();
+    }
+
+    private List<byte[]> encodeSegment(SongRenderer renderer, int firstBlock, int endBlock) {
+        int start = (firstBlock - 1) * VorbisBlockEncoder.HALF;
+        // Block b windows the samples from (b - 1) * HALF to (b + 1) * HALF
+        int end = endBlock * VorbisBlockEncoder.HALF;
+        int[] description = renderer.describeRange(start, end);
+        List<byte[]> packets = this.cache.get(description);
+
+        if (packets != null) {
+            return packets;
+        }
+
+        short[] samples = new short[end - start];
+        float[] pcm = new float[samples.length];
+
+        renderer.renderAt(start, samples, 0, samples.length);
+
+        for (int i = 0; i < samples.length; i++) {
+            pcm[i] = samples[i] / 32768.0f;
+        }
+
+        VorbisBlockEncoder encoder = BLOCK_ENCODERS.get();
+
+        packets = new ArrayList<>(endBlock - firstBlock);
+
+        for (int block = firstBlock; block < endBlock; block++) {
+            packets.add(encoder.encode(pcm, (block - firstBlock) * VorbisBlockEncoder.HALF));
+        }
+
+        this.cache.put(description, packets);
+
+        return packets;
+    }
+
+    private void encodeStreaming(SongRenderer renderer, int serial, OutputStream out) throws IOException {
+        VorbisEncoder encoder = new VorbisEncoder(out, renderer.getSampleRate(), serial);
+        short[] samples = new short[SongRenderer.BLOCK_SIZE];
+        int count;
+
+        while ((count = renderer.render(samples)) > 0) {
+            encoder.write(samples, count);
+        }
+
+        encoder.finish();
+    }
+}
@@ -0,0 +1,74 @@
+package net.wanmine.musicrecorder.music.vorbis;
+
+import java.util.Arrays;
+
+public class BitPacker {
+    private byte[] buffer;
+    private int length;
+
+    private long accumulator;
+    private int accumulatorBits;
+
+    public BitPacker() {
+        this.buffer = new byte[256];
+    }
+
+    // Vorbis packs values least significant bit first
+    public void write(long value, int bits) {
+        while (bits > 0) {
+            int chunk = Math.min(bits, 32);
+
+            this.accumulator |= (value & ((1L << chunk) - 1)) << this.accumulatorBits;
+            this.accumulatorBits += chunk;
+
+            value >>>= chunk;
+            bits -= chunk;
+
+            while (this.accumulatorBits >= 8) {
+                this.put((byte) this.accumulator);
+
+                this.accumulator >>>= 8;
+                this.accumulatorBits -= 8;
+            }
+        }
+    }
+
+    // Huffman codewords are read from the root down, so their most significant bit goes out first
+    public void writeCodeword(int codeword, int length) {
+        this.write(Integer.reverse(codeword) >>> (32 - length), length);
+    }
+
+    public void writeBytes(byte[] bytes) {
+        for (byte b : bytes) {
+            this.write(b, 8);
+        }
+    }
+
+    public byte[] toByteArray() {
+        byte[] result = Arrays.copyOf(this.buffer, this.length + (this.accumulatorBits > 0 ? 1 : 0));
+
+        if (this.accumulatorBits > 0) {
+            result[this.length] = (byte) this.accumulator;
+        }
+
+        return result;
+    }
+
+    public void reset() {
+        this.length = 0;
+        this.accumulator = 0;
+        this.accumulatorBits = 0;
+    }
+
+    private void put(byte b) {
+        if (this.length == this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, this.buffer.length * 2);
+        }
+
+        this.buffer[this.length++] = b;
+    }
+
+    public static int ilog(long value) {
+        return value <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(value);
+    }
+}
@@ -0,0 +1,234 @@
+package net.wanmine.musicrecorder.music.vorbis;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+public class Codebook {
+    private static final int MAX_CODEWORD_LENGTH = 24;
+
+    private final int dimensions;
+    private final int entries;
+    private final int[] lengths;
+    private final int[] codewords;
+
+    // Lookup type 1 vector quantization, values are minimum + multiplicand * delta
+    private final int lookupValues;
+    private final int minimum;
+    private final int delta;
+
+    private Codebook(int dimensions, int entries, double[] weights, int lookupValues, int minimum, int delta) {
+        this.dimensions = dimensions;
+        this.entries = entries;
+        this.lengths = huffmanLengths(weights);
+        this.codewords = codewords(this.lengths);
+        this.lookupValues = lookupValues;
+        this.minimum = minimum;
+        this.delta = delta;
+    }
+
+    /**
+     * A codebook whose entry numbers are used directly, for floor values and residue classifications.
+     */
+    public static Codebook scalar(int dimensions, int entries, double[] weights) {
+        return new Codebook(dimensions, entries, weights, 0, 0, 0);
+    }
+
+    /**
+     * A vector quantization codebook covering every combination of {@code values} integers starting at {@code minimum}.
+     */
+    public static Codebook vector(int dimensions, int values, int minimum, int delta, double decay) {
+        int entries = (int) Math.pow(values, dimensions);
+        double[] weights = new double[entries];
+
+        for (int entry = 0; entry < entries; entry++) {
+            double magnitude = 0;
+
+            for (int i = 0, rest = entry; i < dimensions; i++, rest /= values) {
+                magnitude += Math.abs(minimum + (rest % values) * delta) / (double) delta;
+            }
+
+            weights[entry] = Math.exp(-magnitude / decay);
+        }
+
+        return new Codebook(dimensions, entries, weights, values, minimum, delta);
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    public int getEntries() {
+        return entries;
+    }
+
+    public int getLookupValues() {
+        return lookupValues;
+    }
+
+    public int getMinimum() {
+        return minimum;
+    }
+
+    public int getDelta() {
+        return delta;
+    }
+
+    public int getLength(int entry) {
+        return lengths[entry];
+    }
+
+    public void write(BitPacker packer, int entry) {
+        packer.writeCodeword(this.codewords[entry], this.lengths[entry]);
+    }
+
+    public void writeHeader(BitPacker packer) {
+        packer.write(0x564342, 24);
+        packer.write(this.dimensions, 16);
+        packer.write(this.entries, 24);
+        packer.write(0, 1);    // unordered
+        packer.write(0, 1);    // not sparse
+
+        for (int length : this.lengths) {
+            packer.write(length - 1, 5);
+        }
+
+        if (this.lookupValues == 0) {
+            packer.write(0, 4);
+
+            return;
+        }
+
+        int valueBits = Math.max(1, BitPacker.ilog(this.lookupValues - 1));
+
+        packer.write(1, 4);
+        packer.write(packFloat(this.minimum), 32);
+        packer.write(packFloat(this.delta), 32);
+        packer.write(valueBits - 1, 4);
+        packer.write(0, 1);    // no sequence_p
+
+        for (int i = 0; i < this.lookupValues; i++) {
+            packer.write(i, valueBits);
+        }
+    }
+
+    private static long packFloat(double value) {
+        if (value == 0) {
+            return 0;
+        }
+
+        long sign = value < 0 ? 0x80000000L : 0;
+        double magnitude = Math.abs(value);
+        int exponent = Math.getExponent(magnitude);
+        long mantissa = Math.round(Math.scalb(magnitude, 20 - exponent));
+
+        return sign | ((long) (exponent + 768) << 21) | mantissa;
+    }
+
+    private static int[] huffmanLengths(double[] weights) {
+        int count = weights.length;
+        int[] lengths = new int[count];
+
+        if (count == 1) {
+            lengths[0] = 1;
+
+            return lengths;
+        }
+
+        double max = 0;
+
+        for (double weight : weights) {
+            max = Math.max(max, weight);
+        }
+
+        // A small uniform share keeps rare entries from producing codewords longer than the format allows
+        double floor = max * 1e-5;
+        int[] parent = new int[2 * count - 1];
+        PriorityQueue<double[]> queue = new PriorityQueue<>((a, b) -> a[0] != b[0] ? Double.compare(a[0], b[0]) : Double.compare(a[1], b[1]));
+
+        for (int i = 0; i < count; i++) {
+            queue.add(new double[] {weights[i] + floor, i});
+        }
+
+        int next = count;
+
+        while (queue.size() > 1) {
+            double[] a = queue.poll();
+            double[] b = queue.poll();
+
+            parent[(int) a[1]] = next;
+            parent[(int) b[1]] = next;
+
+            queue.add(new double[] {a[0] + b[0], next++});
+        }
+
+        int root = next - 1;
+
+        for (int i = 0; i < count; i++) {
+            int depth = 0;
+
+            for (int node = i; node != root; node = parent[node]) {
+                depth++;
+            }
+
+            lengths[i] = depth;
+        }
+
+        for (int length : lengths) {
+            if (length > MAX_CODEWORD_LENGTH) {
+                int flat = BitPacker.ilog(count - 1);
+
+                if ((1 << flat) != count) {
+                    throw new IllegalStateException("Codebook with " + count + " entries is too skewed");
+                }
+
+                Arrays.fill(lengths, flat);
+
+                break;
+            }
+        }
+
+        return lengths;
+    }
+
+    // Same assignment the decoder performs: each entry takes the lowest free codeword of its length, in entry order
+    private static int[] codewords(int[] lengths) {
+        int[] marker = new int[33];
+        int[] result = new int[lengths.length];
+
+        for (int i = 0; i < lengths.length; i++) {
+            int length = lengths[i];
+            int entry = marker[length];
+
+            if (length < 32 && (entry >>> length) != 0) {
+                throw new IllegalStateException("Overpopulated codebook");
+            }
+
+            result[i] = entry;
+
+            for (int j = length; j > 0; j--) {
+                if ((marker[j] & 1) != 0) {
+                    if (j == 1) {
+                        marker[1]++;
+                    } else {
+                        marker[j] = marker[j - 1] << 1;
+                    }
+
+                    break;
+                }
+
+                marker[j]++;
+            }
+
+            for (int j = length + 1; j < 33; j++) {
+                if ((marker[j] >>> 1) == entry) {
+                    entry = marker[j];
+                    marker[j] = marker[j - 1] << 1;
+                } else {
+                    break;
+                }
+            }
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,114 @@
+package net.wanmine.musicrecorder.music.vorbis;
+
+public class Mdct {
+    private final int size;
+    private final int half;
+    private final int quarter;
+
+    private final float[] preCos;
+    private final float[] preSin;
+    private final float[] fftCos;
+    private final float[] fftSin;
+    private final int[] bitReverse;
+
+    private final float[] folded;
+    private final float[] real;
+    private final float[] imag;
+
+    public Mdct(int size) {
+        if (Integer.bitCount(size) != 1 || size < 16) {
+            throw new IllegalArgumentException("MDCT size must be a power of two");
+        }
+
+        this.size = size;
+        this.half = size / 2;
+        this.quarter = size / 4;
+
+        this.preCos = new float[this.quarter];
+        this.preSin = new float[this.quarter];
+
+        for (int n = 0; n < this.quarter; n++) {
+            double angle = -Math.PI * (8 * n + 1) / (8.0 * this.half);
+
+            this.preCos[n] = (float) Math.cos(angle);
+            this.preSin[n] = (float) Math.sin(angle);
+        }
+
+        this.fftCos = new float[this.quarter / 2];
+        this.fftSin = new float[this.quarter / 2];
+
+        for (int k = 0; k < this.quarter / 2; k++) {
+            double angle = -2 * Math.PI * k / this.quarter;
+
+            this.fftCos[k] = (float) Math.cos(angle);
+            this.fftSin[k] = (float) Math.sin(angle);
+        }
+
+        int bits = Integer.numberOfTrailingZeros(this.quarter);
+
+        this.bitReverse = new int[this.quarter];
+
+        for (int i = 0; i < this.quarter; i++) {
+            this.bitReverse[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+
+        this.folded = new float[this.half];
+        this.real = new float[this.quarter];
+        this.imag = new float[this.quarter];
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Transforms {@code size} windowed samples into {@code size / 2} coefficients,
+     * X[k] = sum x[n] cos(2 pi / size * (n + 1/2 + size / 4) * (k + 1/2)).
+     */
+    public void forward(float[] in, float[] out) {
+        // Fold the four input quarters (a, b, c, d) into (-c_r - d, a - b_r), which turns the MDCT into a DCT-IV
+        for (int n = 0; n < this.quarter; n++) {
+            this.folded[n] = -in[this.half + this.quarter - 1 - n] - in[this.half + this.quarter + n];
+            this.folded[this.quarter + n] = in[n] - in[this.half - 1 - n];
+        }
+
+        for (int n = 0; n < this.quarter; n++) {
+            float re = this.folded[2 * n];
+            float im = this.folded[this.half - 1 - 2 * n];
+            int target = this.bitReverse[n];
+
+            this.real[target] = re * this.preCos[n] - im * this.preSin[n];
+            this.imag[target] = re * this.preSin[n] + im * this.preCos[n];
+        }
+
+        for (int length = 2; length <= this.quarter; length <<= 1) {
+            int step = this.quarter / length;
+            int span = length >> 1;
+
+            for (int start = 0; start < this.quarter; start += length) {
+                for (int j = 0; j < span; j++) {
+                    float c = this.fftCos[j * step];
+                    float s = this.fftSin[j * step];
+                    int a = start + j;
+                    int b = a + span;
+
+                    float re = this.real[b] * c - this.imag[b] * s;
+                    float im = this.real[b] * s + this.imag[b] * c;
+
+                    this.real[b] = this.real[a] - re;
+                    this.imag[b] = this.imag[a] - im;
+                    this.real[a] += re;
+                    this.imag[a] += im;
+                }
+            }
+        }
+
+        for (int k = 0; k < this.quarter; k++) {
+            float re = this.real[k] * this.preCos[k] - this.imag[k] * this.preSin[k];
+            float im = this.real[k] * this.preSin[k] + this.imag[k] * this.preCos[k];
+
+            out[2 * k] = re;
+            out[this.half - 1 - 2 * k] = -im;
+        }
+    }
+}
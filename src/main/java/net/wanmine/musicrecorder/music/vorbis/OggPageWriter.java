@@ -0,0 +1,145 @@
+package net.wanmine.musicrecorder.music.vorbis;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+public class OggPageWriter {
+    private static final int TARGET_PAGE_SIZE = 4096;
+    private static final int MAX_SEGMENTS = 255;
+
+    private static final int FLAG_CONTINUED = 0x01;
+    private static final int FLAG_FIRST = 0x02;
+    private static final int FLAG_LAST = 0x04;
+
+    private static final int[] CRC_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 24;
+
+            for (int j = 0; j < 8; j++) {
+                crc = (crc & 0x80000000) != 0 ? (crc << 1) ^ 0x04C11DB7 : crc << 1;
+            }
+
+            CRC_TABLE[i] = crc;
+        }
+    }
+
+    private final OutputStream out;
+    private final int serial;
+
+    private final ByteArrayOutputStream body;
+    private final byte[] lacing;
+    private int segments;
+
+    private int sequence;
+    private long granule;
+    private boolean continued;
+    private boolean first;
+
+    public OggPageWriter(OutputStream out, int serial) {
+        this.out = out;
+        this.serial = serial;
+        this.body = new ByteArrayOutputStream(TARGET_PAGE_SIZE + 512);
+        this.lacing = new byte[MAX_SEGMENTS];
+        this.granule = -1;
+        this.first = true;
+    }
+
+    /**
+     * Adds a packet to the current page. The granule position is the sample count once this packet has been decoded.
+     */
+    public void writePacket(byte[] packet, long granule) throws IOException {
+        // Full pages are only written once the next packet arrives, so the final packet always ends up on the last page
+        if (this.body.size() >= TARGET_PAGE_SIZE) {
+            this.flushPage(false);
+        }
+
+        int offset = 0;
+
+        while (true) {
+            if (this.segments == MAX_SEGMENTS) {
+                this.flushPage(false);
+
+                this.continued = true;
+            }
+
+            int chunk = Math.min(255, packet.length - offset);
+
+            this.lacing[this.segments++] = (byte) chunk;
+            this.body.write(packet, offset, chunk);
+
+            offset += chunk;
+
+            // A lacing value below 255 ends the packet, so packets that are a multiple of 255 bytes need a trailing 0
+            if (chunk < 255) {
+                break;
+            }
+        }
+
+        this.granule = granule;
+    }
+
+    public void flush() throws IOException {
+        if (this.segments > 0) {
+            this.flushPage(false);
+        }
+    }
+
+    public void finish() throws IOException {
+        this.flushPage(true);
+        this.out.flush();
+    }
+
+    private void flushPage(boolean last) throws IOException {
+        byte[] page = new byte[27 + this.segments + this.body.size()];
+        int flags = (this.continued ? FLAG_CONTINUED : 0) | (this.first ? FLAG_FIRST : 0) | (last ? FLAG_LAST : 0);
+
+        page[0] = 'O';
+        page[1] = 'g';
+        page[2] = 'g';
+        page[3] = 'S';
+        page[4] = 0;
+        page[5] = (byte) flags;
+        putLong(page, 6, this.granule);
+        putInt(page, 14, this.serial);
+        putInt(page, 18, this.sequence++);
+        page[26] = (byte) this.segments;
+
+        System.arraycopy(this.lacing, 0, page, 27, this.segments);
+        System.arraycopy(this.body.toByteArray(), 0, page, 27 + this.segments, this.body.size());
+
+        putInt(page, 22, crc(page));
+
+        this.out.write(page);
+
+        this.body.reset();
+        this.segments = 0;
+        this.granule = -1;
+        this.continued = false;
+        this.first = false;
+    }
+
+    private static int crc(byte[] page) {
+        int crc = 0;
+
+        for (byte b : page) {
+            crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ b) & 0xFF];
+        }
+
+        return crc;
+    }
+
+    private static void putInt(byte[] target, int offset, int value) {
+        for (int i = 0; i < 4; i++) {
+            target[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    private static void putLong(byte[] target, int offset, long value) {
+        for (int i = 0; i < 8; i++) {
+            target[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+}
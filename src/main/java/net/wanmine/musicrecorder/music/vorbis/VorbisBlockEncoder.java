@@ -0,0 +1,509 @@
+package net.wanmine.musicrecorder.music.vorbis;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Encodes single Vorbis I audio packets for mono streams: fixed 2048 sample blocks, a floor 1 curve fitted to the
+ * spectral envelope, and a two pass cascaded residue with static Huffman codebooks. A packet only depends on the
+ * samples of its own block, which is what lets encoded packets be cached and reused.
+ */
+public class VorbisBlockEncoder {
+    private static final String VENDOR = "Wan's Music Recorder";
+
+    public static final int BLOCK_SIZE = 2048;
+    public static final int HALF = BLOCK_SIZE / 2;
+    private static final int BLOCK_SIZE_BITS = 11;
+
+    private static final int FLOOR_MULTIPLIER = 2;
+    private static final int FLOOR_RANGE = 128;
+    private static final int FLOOR_RANGE_BITS = 10;
+    private static final int FLOOR_CLASS_DIMENSIONS = 4;
+    private static final int[] FLOOR_X = {
+            0, 1 << FLOOR_RANGE_BITS,
+            512, 256, 128, 768, 64, 192, 384, 32, 96, 160, 640, 16, 48, 80, 896, 8, 24, 40, 56, 112, 4, 12, 20, 28, 320, 448, 224, 576
+    };
+
+    private static final int RESIDUE_PARTITION_SIZE = 32;
+    private static final int RESIDUE_CLASSIFICATIONS = 5;
+    private static final int RESIDUE_COARSE_STEP = 25;
+    private static final int RESIDUE_LIMIT = 15 * RESIDUE_COARSE_STEP + 12;
+
+    // Quantization step relative to the local spectral peak, and the lowest step relative to the loudest bin of the block
+    private static final float NOISE_RATIO = 1.0f / 40;
+    private static final float PEAK_RATIO = 1.0f / 256;
+    private static final float SILENCE = 1e-4f;
+    private static final float MDCT_SCALE = 4.0f / BLOCK_SIZE;
+
+    private static final Codebook FLOOR_BOOK;
+    private static final Codebook CLASS_BOOK;
+    private static final Codebook[] BOOKS;
+    private static final Codebook[][] RESIDUE_BOOKS;
+
+    private static final float[] WINDOW = new float[BLOCK_SIZE];
+    private static final float[] INVERSE_DB = new float[256];
+
+    private static final int[] FLOOR_SORTED;
+    private static final int[] FLOOR_LOW;
+    private static final int[] FLOOR_HIGH;
+    private static final int[] FLOOR_FROM;
+    private static final int[] FLOOR_TO;
+
+    static {
+        double[] floorWeights = new double[FLOOR_RANGE];
+
+        for (int i = 0; i < FLOOR_RANGE; i++) {
+            floorWeights[i] = Math.exp(-i / 8.0);
+        }
+
+        double[] classProbabilities = {0.4, 0.25, 0.15, 0.12, 0.08};
+        double[] classWeights = new double[RESIDUE_CLASSIFICATIONS * RESIDUE_CLASSIFICATIONS];
+
+        for (int i = 0; i < classWeights.length; i++) {
+            classWeights[i] = classProbabilities[i / RESIDUE_CLASSIFICATIONS] * classProbabilities[i % RESIDUE_CLASSIFICATIONS];
+        }
+
+        FLOOR_BOOK = Codebook.scalar(1, FLOOR_RANGE, floorWeights);
+        CLASS_BOOK = Codebook.scalar(2, classWeights.length, classWeights);
+
+        Codebook small = Codebook.vector(4, 3, -1, 1, 0.5);
+        Codebook medium = Codebook.vector(2, 9, -4, 1, 1.2);
+        Codebook large = Codebook.vector(2, 25, -12, 1, 3.0);
+        Codebook coarse = Codebook.vector(2, 31, -15 * RESIDUE_COARSE_STEP, RESIDUE_COARSE_STEP, 1.5);
+
+        BOOKS = new Codebook[] {FLOOR_BOOK, CLASS_BOOK, small, medium, large, coarse};
+
+        // Books used by each residue classification in each cascade pass
+        RESIDUE_BOOKS = new Codebook[][] {
+                {},
+                {small},
+                {medium},
+                {large},
+                {coarse, large}
+        };
+
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            double inner = Math.sin((i + 0.5) / BLOCK_SIZE * Math.PI);
+
+            WINDOW[i] = (float) Math.sin(Math.PI / 2 * inner * inner);
+        }
+
+        for (int i = 0; i < INVERSE_DB.length; i++) {
+            INVERSE_DB[i] = (float) Math.pow(10, 7.0 * (i - 255) / 256);
+        }
+
+        FLOOR_SORTED = new int[FLOOR_X.length];
+        FLOOR_LOW = new int[FLOOR_X.length];
+        FLOOR_HIGH = new int[FLOOR_X.length];
+
+        Integer[] order = new Integer[FLOOR_X.length];
+
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+
+        Arrays.sort(order, (a, b) -> Integer.compare(FLOOR_X[a], FLOOR_X[b]));
+
+        for (int i = 0; i < order.length; i++) {
+            FLOOR_SORTED[i] = order[i];
+        }
+
+        for (int i = 2; i < FLOOR_X.length; i++) {
+            int low = 0;
+            int high = 1;
+
+            for (int j = 0; j < i; j++) {
+                if (FLOOR_X[j] < FLOOR_X[i] && FLOOR_X[j] > FLOOR_X[low]) {
+                    low = j;
+                }
+
+                if (FLOOR_X[j] > FLOOR_X[i] && FLOOR_X[j] < FLOOR_X[high]) {
+                    high = j;
+                }
+            }
+
+            FLOOR_LOW[i] = low;
+            FLOOR_HIGH[i] = high;
+        }
+
+        // Each post follows the loudest bin between the midpoints to its sorted neighbours
+        FLOOR_FROM = new int[FLOOR_X.length];
+        FLOOR_TO = new int[FLOOR_X.length];
+
+        for (int i = 0; i < FLOOR_SORTED.length; i++) {
+            int post = FLOOR_SORTED[i];
+
+            FLOOR_FROM[post] = i == 0 ? 0 : (FLOOR_X[FLOOR_SORTED[i - 1]] + FLOOR_X[post]) / 2;
+            FLOOR_TO[post] = i == FLOOR_SORTED.length - 1 ? HALF : Math.min(HALF, (FLOOR_X[post] + FLOOR_X[FLOOR_SORTED[i + 1]]) / 2 + 1);
+        }
+    }
+
+    private final Mdct mdct;
+    private final BitPacker packer;
+
+    private final float[] windowed;
+    private final float[] spectrum;
+    private final float[] floor;
+    private final int[] curve;
+    private final int[] quantized;
+    private final int[] classes;
+
+    private final int[] floorY;
+    private final int[] floorCoded;
+    private final boolean[] floorUsed;
+
+    public VorbisBlockEncoder() {
+        this.mdct = new Mdct(BLOCK_SIZE);
+        this.packer = new BitPacker();
+
+        this.windowed = new float[BLOCK_SIZE];
+        this.spectrum = new float[HALF];
+        this.floor = new float[HALF];
+        this.curve = new int[HALF + 1];
+        this.quantized = new int[HALF];
+        this.classes = new int[HALF / RESIDUE_PARTITION_SIZE];
+
+        this.floorY = new int[FLOOR_X.length];
+        this.floorCoded = new int[FLOOR_X.length];
+        this.floorUsed = new boolean[FLOOR_X.length];
+    }
+
+    public static void writeHeaders(OggPageWriter pages, int sampleRate) throws IOException {
+        BitPacker header = new BitPacker();
+
+        header.write(1, 8);
+        header.writeBytes("vorbis".getBytes(StandardCharsets.US_ASCII));
+        header.write(0, 32);
+        header.write(1, 8);
+        header.write(sampleRate, 32);
+        header.write(0, 32);
+        header.write(0, 32);
+        header.write(0, 32);
+        header.write(BLOCK_SIZE_BITS, 4);
+        header.write(BLOCK_SIZE_BITS, 4);
+        header.write(1, 1);
+
+        pages.writePacket(header.toByteArray(), 0);
+        pages.flush();
+
+        byte[] vendor = VENDOR.getBytes(StandardCharsets.UTF_8);
+
+        header.reset();
+        header.write(3, 8);
+        header.writeBytes("vorbis".getBytes(StandardCharsets.US_ASCII));
+        header.write(vendor.length, 32);
+        header.writeBytes(vendor);
+        header.write(0, 32);
+        header.write(1, 1);
+
+        pages.writePacket(header.toByteArray(), 0);
+
+        header.reset();
+        header.write(5, 8);
+        header.writeBytes("vorbis".getBytes(StandardCharsets.US_ASCII));
+        header.write(BOOKS.length - 1, 8);
+
+        for (Codebook book : BOOKS) {
+            book.writeHeader(header);
+        }
+
+        // Time domain transforms, unused but required
+        header.write(0, 6);
+        header.write(0, 16);
+
+        // Floor type 1
+        int partitions = (FLOOR_X.length - 2) / FLOOR_CLASS_DIMENSIONS;
+
+        header.write(0, 6);
+        header.write(1, 16);
+        header.write(partitions, 5);
+
+        for (int i = 0; i < partitions; i++) {
+            header.write(0, 4);
+        }
+
+        header.write(FLOOR_CLASS_DIMENSIONS - 1, 3);
+        header.write(0, 2);
+        header.write(bookIndex(FLOOR_BOOK) + 1, 8);
+        header.write(FLOOR_MULTIPLIER - 1, 2);
+        header.write(FLOOR_RANGE_BITS, 4);
+
+        for (int i = 2; i < FLOOR_X.length; i++) {
+            header.write(FLOOR_X[i], FLOOR_RANGE_BITS);
+        }
+
+        // Residue type 1
+        header.write(0, 6);
+        header.write(1, 16);
+        header.write(0, 24);
+        header.write(HALF, 24);
+        header.write(RESIDUE_PARTITION_SIZE - 1, 24);
+        header.write(RESIDUE_CLASSIFICATIONS - 1, 6);
+        header.write(bookIndex(CLASS_BOOK), 8);
+
+        for (Codebook[] passes : RESIDUE_BOOKS) {
+            header.write((1 << passes.length) - 1, 3);
+            header.write(0, 1);
+        }
+
+        for (Codebook[] passes : RESIDUE_BOOKS) {
+            for (Codebook book : passes) {
+                header.write(bookIndex(book), 8);
+            }
+        }
+
+        // Mapping type 0 with a single submap and no coupling
+        header.write(0, 6);
+        header.write(0, 16);
+        header.write(0, 1);
+        header.write(0, 1);
+        header.write(0, 2);
+        header.write(0, 8);
+        header.write(0, 8);
+        header.write(0, 8);
+
+        // A single mode using the only block size
+        header.write(0, 6);
+        header.write(0, 1);
+        header.write(0, 16);
+        header.write(0, 16);
+        header.write(0, 8);
+
+        header.write(1, 1);
+
+        pages.writePacket(header.toByteArray(), 0);
+        pages.flush();
+    }
+
+    /**
+     * Encodes the audio packet for one block of {@code BLOCK_SIZE} samples, which overlaps its neighbours by half.
+     */
+    public byte[] encode(float[] pcm, int offset) {
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            this.windowed[i] = pcm[offset + i] * WINDOW[i];
+        }
+
+        this.mdct.forward(this.windowed, this.spectrum);
+
+        for (int k = 0; k < HALF; k++) {
+            this.spectrum[k] *= MDCT_SCALE;
+        }
+
+        this.packer.reset();
+        this.packer.write(0, 1);
+
+        if (this.encodeFloor()) {
+            this.encodeResidue();
+        }
+
+        return this.packer.toByteArray();
+    }
+
+    private boolean encodeFloor() {
+        float peak = 0;
+
+        for (float value : this.spectrum) {
+            peak = Math.max(peak, Math.abs(value));
+        }
+
+        if (peak < SILENCE) {
+            this.packer.write(0, 1);
+
+            return false;
+        }
+
+        for (int i = 0; i < FLOOR_X.length; i++) {
+            float envelope = 0;
+
+            for (int k = FLOOR_FROM[i]; k < FLOOR_TO[i]; k++) {
+                envelope = Math.max(envelope, Math.abs(this.spectrum[k]));
+            }
+
+            float target = Math.max(envelope * NOISE_RATIO, peak * PEAK_RATIO);
+            double index = 255 + 256 / 7.0 * Math.log10(target);
+
+            this.floorY[i] = Math.clamp(Math.round(index / FLOOR_MULTIPLIER), 0, FLOOR_RANGE - 1);
+        }
+
+        Arrays.fill(this.floorUsed, false);
+
+        this.floorUsed[0] = true;
+        this.floorUsed[1] = true;
+
+        for (int i = 2; i < FLOOR_X.length; i++) {
+            int low = FLOOR_LOW[i];
+            int high = FLOOR_HIGH[i];
+            int predicted = renderPoint(FLOOR_X[low], this.floorY[low], FLOOR_X[high], this.floorY[high], FLOOR_X[i]);
+            int value = floorValue(this.floorY[i], predicted);
+
+            this.floorCoded[i] = value;
+
+            if (value != 0) {
+                this.floorUsed[low] = true;
+                this.floorUsed[high] = true;
+                this.floorUsed[i] = true;
+            }
+        }
+
+        int rangeBits = BitPacker.ilog(FLOOR_RANGE - 1);
+
+        this.packer.write(1, 1);
+        this.packer.write(this.floorY[0], rangeBits);
+        this.packer.write(this.floorY[1], rangeBits);
+
+        for (int i = 2; i < FLOOR_X.length; i++) {
+            FLOOR_BOOK.write(this.packer, this.floorCoded[i]);
+        }
+
+        // Render the curve exactly as a decoder will, so the residue is measured against what gets played back
+        int lx = 0;
+        int ly = this.floorY[0] * FLOOR_MULTIPLIER;
+
+        for (int i = 1; i < FLOOR_SORTED.length; i++) {
+            int post = FLOOR_SORTED[i];
+
+            if (this.floorUsed[post]) {
+                int hx = FLOOR_X[post];
+                int hy = this.floorY[post] * FLOOR_MULTIPLIER;
+
+                renderLine(lx, ly, hx, hy, this.curve);
+
+                lx = hx;
+                ly = hy;
+            }
+        }
+
+        for (int k = 0; k < HALF; k++) {
+            this.floor[k] = INVERSE_DB[this.curve[k]];
+        }
+
+        return true;
+    }
+
+    private void encodeResidue() {
+        for (int k = 0; k < HALF; k++) {
+            this.quantized[k] = Math.clamp(Math.round(this.spectrum[k] / this.floor[k]), -RESIDUE_LIMIT, RESIDUE_LIMIT);
+        }
+
+        for (int p = 0; p < this.classes.length; p++) {
+            int max = 0;
+
+            for (int k = p * RESIDUE_PARTITION_SIZE; k < (p + 1) * RESIDUE_PARTITION_SIZE; k++) {
+                max = Math.max(max, Math.abs(this.quantized[k]));
+            }
+
+            this.classes[p] = max == 0 ? 0 : max <= 1 ? 1 : max <= 4 ? 2 : max <= 12 ? 3 : 4;
+        }
+
+        int perCodeword = CLASS_BOOK.getDimensions();
+
+        for (int pass = 0; pass < 2; pass++) {
+            for (int group = 0; group < this.classes.length; group += perCodeword) {
+                if (pass == 0) {
+                    int entry = 0;
+
+                    for (int j = 0; j < perCodeword; j++) {
+                        entry = entry * RESIDUE_CLASSIFICATIONS + this.classes[group + j];
+                    }
+
+                    CLASS_BOOK.write(this.packer, entry);
+                }
+
+                for (int p = group; p < group + perCodeword; p++) {
+                    Codebook[] passes = RESIDUE_BOOKS[this.classes[p]];
+
+                    if (pass < passes.length) {
+                        this.writePartition(passes[pass], p * RESIDUE_PARTITION_SIZE, passes.length > 1, pass);
+                    }
+                }
+            }
+        }
+    }
+
+    // Split partitions send the nearest multiple of the coarse step first and what is left in the second pass
+    private void writePartition(Codebook book, int offset, boolean split, int pass) {
+        int dimensions = book.getDimensions();
+        int values = book.getLookupValues();
+
+        for (int i = 0; i < RESIDUE_PARTITION_SIZE; i += dimensions) {
+            int entry = 0;
+
+            for (int j = dimensions - 1; j >= 0; j--) {
+                int q = this.quantized[offset + i + j];
+                int coarse = Math.clamp(Math.round(q / (float) RESIDUE_COARSE_STEP), -15, 15) * RESIDUE_COARSE_STEP;
+                int value = !split ? q : pass == 0 ? coarse : q - coarse;
+
+                entry = entry * values + (value - book.getMinimum()) / book.getDelta();
+            }
+
+            book.write(this.packer, entry);
+        }
+    }
+
+    private static int floorValue(int target, int predicted) {
+        int highRoom = FLOOR_RANGE - predicted;
+        int lowRoom = predicted;
+        int room = Math.min(highRoom, lowRoom) * 2;
+        int difference = target - predicted;
+
+        if (difference == 0) {
+            return 0;
+        }
+
+        int value = difference > 0 ? 2 * difference : -2 * difference - 1;
+
+        if (value < room) {
+            return value;
+        }
+
+        return highRoom > lowRoom ? difference + lowRoom : -difference + highRoom - 1;
+    }
+
+    private static int renderPoint(int x0, int y0, int x1, int y1, int x) {
+        int dy = y1 - y0;
+        int adx = x1 - x0;
+        int offset = Math.abs(dy) * (x - x0) / adx;
+
+        return dy < 0 ? y0 - offset : y0 + offset;
+    }
+
+    private static void renderLine(int x0, int y0, int x1, int y1, int[] v) {
+        int dy = y1 - y0;
+        int adx = x1 - x0;
+        int base = dy / adx;
+        int sy = dy < 0 ? base - 1 : base + 1;
+        int ady = Math.abs(dy) - Math.abs(base) * adx;
+        int y = y0;
+        int err = 0;
+
+        if (x0 < HALF) {
+            v[x0] = y;
+        }
+
+        for (int x = x0 + 1; x < x1; x++) {
+            err += ady;
+
+            if (err >= adx) {
+                err -= adx;
+                y += sy;
+            } else {
+                y += base;
+            }
+
+            if (x < HALF) {
+                v[x] = y;
+            }
+        }
+    }
+
+    private static int bookIndex(Codebook book) {
+        for (int i = 0; i < BOOKS.length; i++) {
+            if (BOOKS[i] == book) {
+                return i;
+            }
+        }
+
+        throw new IllegalStateException("Unknown codebook");
+    }
+}
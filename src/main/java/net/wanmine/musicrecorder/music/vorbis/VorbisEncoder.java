@@ -0,0 +1,98 @@
+package net.wanmine.musicrecorder.music.vorbis;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streams 16-bit mono PCM into an Ogg/Vorbis file as it arrives.
+ */
+public class VorbisEncoder {
+    private static final int BLOCK_SIZE = VorbisBlockEncoder.BLOCK_SIZE;
+    private static final int HALF = VorbisBlockEncoder.HALF;
+
+    private final OggPageWriter pages;
+    private final VorbisBlockEncoder encoder;
+    private final float[] pcm;
+
+    private int filled;
+    private int blocks;
+    private long totalSamples;
+
+    public VorbisEncoder(OutputStream out, int sampleRate, int serial) throws IOException {
+        this.pages = new OggPageWriter(out, serial);
+        this.encoder = new VorbisBlockEncoder();
+        this.pcm = new float[BLOCK_SIZE];
+
+        // The first block is centered on the start of the stream, so its first half is silence
+        this.filled = HALF;
+
+        VorbisBlockEncoder.writeHeaders(this.pages, sampleRate);
+    }
+
+    public void write(short[] samples, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            this.pcm[this.filled++] = samples[i] / 32768.0f;
+
+            if (this.filled == BLOCK_SIZE) {
+                this.encodeBlock(false);
+            }
+        }
+
+        this.totalSamples += count;
+    }
+
+    public void finish() throws IOException {
+        long lastBlock = getBlockCount(this.totalSamples) - 1;
+
+        while (this.blocks <= lastBlock) {
+            Arrays.fill(this.pcm, this.filled, BLOCK_SIZE, 0.0f);
+
+            this.filled = BLOCK_SIZE;
+            this.encodeBlock(this.blocks == lastBlock);
+        }
+
+        this.pages.finish();
+    }
+
+    private void encodeBlock(boolean last) throws IOException {
+        this.pages.writePacket(this.encoder.encode(this.pcm, 0), getGranule(this.blocks, last, this.totalSamples));
+
+        System.arraycopy(this.pcm, HALF, this.pcm, 0, HALF);
+
+        this.filled = HALF;
+        this.blocks++;
+    }
+
+    /**
+     * Number of audio packets in a stream of {@code totalSamples}. Block {@code j} covers the samples from
+     * {@code (j - 1) * HALF} to {@code (j + 1) * HALF}, samples outside the stream being silence.
+     */
+    public static int getBlockCount(long totalSamples) {
+        return (int) ((totalSamples + HALF - 1) / HALF) + 1;
+    }
+
+    /**
+     * Writes a complete stream from audio packets that were encoded ahead of time, one per block.
+     */
+    public static void writeStream(OutputStream out, int sampleRate, int serial, List<byte[]> packets, long totalSamples) throws IOException {
+        if (packets.size() != getBlockCount(totalSamples)) {
+            throw new IOException("Expected " + getBlockCount(totalSamples) + " packets but got " + packets.size());
+        }
+
+        OggPageWriter pages = new OggPageWriter(out, serial);
+
+        VorbisBlockEncoder.writeHeaders(pages, sampleRate);
+
+        for (int i = 0; i < packets.size(); i++) {
+            pages.writePacket(packets.get(i), getGranule(i, i == packets.size() - 1, totalSamples));
+        }
+
+        pages.finish();
+    }
+
+    private static long getGranule(int block, boolean last, long totalSamples) {
+        return last ? totalSamples : Math.min((long) block * HALF, totalSamples);
+    }
+}
@@ -0,0 +1,96 @@
+package net.wanmine.musicrecorder.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * Least recently used cache bounded by the total size of its values rather than by entry count.
+ */
+public class BudgetedLruCache<K, V> {
+    private final LinkedHashMap<K, V> entries;
+    private final ToLongFunction<V> weigher;
+    private final int maxEntryShare;
+
+    private long budgetBytes;
+    private long usedBytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxEntryShare a single value may take at most {@code 1 / maxEntryShare} of the budget
+     */
+    public BudgetedLruCache(long budgetBytes, int maxEntryShare, ToLongFunction<V> weigher) {
+        this.entries = new LinkedHashMap<>(64, 0.75f, true);
+        this.weigher = weigher;
+        this.maxEntryShare = maxEntryShare;
+        this.budgetBytes = budgetBytes;
+    }
+
+    public synchronized void setBudget(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+
+        this.trim();
+    }
+
+    public synchronized boolean accepts(long bytes) {
+        return bytes <= this.budgetBytes / this.maxEntryShare;
+    }
+
+    public synchronized V get(K key) {
+        V value = this.entries.get(key);
+
+        if (value != null) {
+            this.hits++;
+        } else {
+            this.misses++;
+        }
+
+        return value;
+    }
+
+    public synchronized void put(K key, V value) {
+        long weight = this.weigher.applyAsLong(value);
+
+        if (!this.accepts(weight)) {
+            return;
+        }
+
+        V previous = this.entries.put(key, value);
+
+        if (previous != null) {
+            this.usedBytes -= this.weigher.applyAsLong(previous);
+        }
+
+        this.usedBytes += weight;
+
+        this.trim();
+    }
+
+    public synchronized void clear() {
+        this.entries.clear();
+        this.usedBytes = 0;
+    }
+
+    public synchronized String getStats() {
+        long lookups = this.hits + this.misses;
+        double hitRate = lookups == 0 ? 0 : 100.0 * this.hits / lookups;
+
+        return String.format("%d entries, %.1f/%.1f MB, %.1f%% hit rate (%d hits, %d misses, %d evictions)",
+                this.entries.size(), this.usedBytes / 1048576.0, this.budgetBytes / 1048576.0, hitRate, this.hits, this.misses, this.evictions);
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<K, V>> iterator = this.entries.entrySet().iterator();
+
+        while (this.usedBytes > this.budgetBytes && iterator.hasNext()) {
+            this.usedBytes -= this.weigher.applyAsLong(iterator.next().getValue());
+            this.evictions++;
+
+            iterator.remove();
+        }
+    }
+}
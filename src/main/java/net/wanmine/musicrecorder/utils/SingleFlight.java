@@ -0,0 +1,72 @@
+package net.wanmine.musicrecorder.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Runs a call at most once at a time per key. Callers arriving while it runs wait for it and share its result or failure
+ * instead of running it again. Once it finished, the next caller runs it anew. A call that was interrupted, for example
+ * because its caller gave up, is not shared: the waiting callers run it again themselves.
+ */
+public class SingleFlight<K, V> {
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight;
+
+    private long calls;
+    private long shared;
+
+    public SingleFlight() {
+        this.inFlight = new ConcurrentHashMap<>();
+    }
+
+    public V run(K key, Call<V> call) throws IOException {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> existing;
+
+        while ((existing = this.inFlight.putIfAbsent(key, flight)) != null) {
+            synchronized (this) {
+                this.shared++;
+            }
+
+            try {
+                return existing.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                throw new InterruptedIOException("Interrupted while waiting for a shared call");
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof InterruptedIOException)) {
+                    throw new IOException(e.getCause().getMessage(), e.getCause());
+                }
+            }
+        }
+
+        synchronized (this) {
+            this.calls++;
+        }
+
+        try {
+            V value = call.call();
+
+            flight.complete(value);
+
+            return value;
+        } catch (Throwable e) {
+            flight.completeExceptionally(e);
+
+            throw e;
+        } finally {
+            this.inFlight.remove(key, flight);
+        }
+    }
+
+    public synchronized String getStats() {
+        return String.format("%d calls, %d shared", this.calls, this.shared);
+    }
+
+    public interface Call<V> {
+        V call() throws IOException;
+    }
+}